@@ -0,0 +1,321 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+
+// Processes a whole folder (or glob) for several deficiency types at once.
+// Decode, transform and encode are separate stages, each with its own
+// thread pool and a bounded queue in front of it. A full queue blocks the
+// stage feeding it, so at most a few decoded images are in memory while disk
+// and CPU work overlap. Every source file is decoded once and then rendered
+// for all requested types and severities. With -Dcoloraid.cache=true, outputs
+// already in ResultCache are copied from there and a file whose every output
+// is cached is not decoded.
+//
+//   java BatchProcessor <folder | glob> [types, e.g. 1,2,3,4] [severities, e.g. 0.4,0.7,1]
+class BatchProcessor {
+
+    private static final String[] SUFFIXES = ColorAidApp.OUTPUT_SUFFIXES;
+
+    private final int[] types;
+    private final int[] levels;
+    private final ThreadPoolExecutor decodeStage, transformStage, encodeStage;
+
+    private final AtomicInteger images = new AtomicInteger();
+    private final AtomicInteger outputs = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicInteger cached = new AtomicInteger();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+
+    BatchProcessor(int[] types, int[] levels) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        this.types = types;
+        this.levels = levels;
+        this.decodeStage = stage("decode", Integer.getInteger("coloraid.batch.decoders", 2), 4);
+        this.transformStage = stage("transform", Integer.getInteger("coloraid.batch.transformers", Math.max(1, cores / 2)), 2);
+        this.encodeStage = stage("encode", Integer.getInteger("coloraid.batch.encoders", Math.max(2, cores / 2)), 3 * types.length * levels.length);
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: java BatchProcessor <folder | glob> [types, e.g. 1,2,3,4] [severities, e.g. 0.4,0.7,1]");
+            return;
+        }
+        int[] types = parseTypes(args.length > 1 ? args[1] : "1,2,3,4");
+        if (types == null) {
+            System.out.println("Invalid types. Use numbers 1-4 separated by commas.");
+            return;
+        }
+        int[] levels = parseSeverities(args.length > 2 ? args[2] : "1");
+        if (levels == null) {
+            System.out.println("Invalid severities. Use numbers from 0.0 to 1.0 separated by commas.");
+            return;
+        }
+        run(args[0], types, levels);
+    }
+
+    static void run(String source, int[] types, int[] levels) {
+        List<Path> files;
+        try {
+            files = listImages(source);
+        } catch (IOException e) {
+            System.out.println("Cannot list images: " + e.getMessage());
+            return;
+        }
+        if (files.isEmpty()) {
+            System.out.println("No images found for: " + source);
+            return;
+        }
+        // Each image is rendered at every level in turn; if the partial levels
+        // don't all fit in the table cache they would be rebuilt for every image.
+        int partial = 0;
+        for (int type : types) {
+            for (int level : levels) {
+                if (!ColorKernels.isFull(type, level)) partial++;
+            }
+        }
+        if (partial > ColorLut.CACHE_SIZE) {
+            System.out.println("Note: " + partial + " severity tables exceed -Dcoloraid.lut.cacheSize="
+                    + ColorLut.CACHE_SIZE + "; raise it so each is built only once.");
+        }
+        System.out.println("Batch processing " + files.size() + " image(s) for " + types.length + " type(s) at "
+                + levels.length + " severit" + (levels.length == 1 ? "y" : "ies") + "...");
+        new BatchProcessor(types, levels).process(files);
+    }
+
+    // "1,3" -> {1, 3}; null when any entry is not a type from 1 to 4.
+    static int[] parseTypes(String text) {
+        TreeSet<Integer> set = new TreeSet<>();
+        for (String part : text.split("[,\\s]+")) {
+            if (part.isEmpty()) continue;
+            try {
+                int t = Integer.parseInt(part);
+                if (t < 1 || t > 4) return null;
+                set.add(t);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return set.isEmpty() ? null : set.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // "0.5,1" -> their severity levels; null when any entry is outside 0.0-1.0.
+    static int[] parseSeverities(String text) {
+        TreeSet<Integer> set = new TreeSet<>();
+        for (String part : text.split("[,\\s]+")) {
+            if (part.isEmpty()) continue;
+            int level = ColorKernels.parseSeverity(part);
+            if (level < 0) return null;
+            set.add(level);
+        }
+        return set.isEmpty() ? null : set.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // A directory lists its images; anything else is a glob like photos/*.jpg.
+    static List<Path> listImages(String source) throws IOException {
+        Path path = Paths.get(source);
+        Path dir;
+        PathMatcher matcher;
+        if (Files.isDirectory(path)) {
+            dir = path;
+            matcher = FileSystems.getDefault().getPathMatcher("glob:*.{png,PNG,jpg,JPG,jpeg,JPEG,bmp,BMP,gif,GIF}");
+        } else {
+            dir = (path.getParent() == null) ? Paths.get(".") : path.getParent();
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + path.getFileName());
+        }
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path p : stream) {
+                if (Files.isRegularFile(p) && matcher.matches(p.getFileName()) && !isOutput(p)) {
+                    files.add(p);
+                }
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    // Skip results of earlier runs sitting next to their sources.
+    private static boolean isOutput(Path p) {
+        String name = p.getFileName().toString();
+        for (String suffix : SUFFIXES) {
+            if (name.endsWith(suffix + OutputEncoder.extension())) return true;
+        }
+        return false;
+    }
+
+    void process(List<Path> files) {
+        long start = System.nanoTime();
+        for (Path file : files) {
+            decodeStage.execute(() -> decode(file));
+        }
+        drain(decodeStage);
+        drain(transformStage);
+        drain(encodeStage);
+        ResultCache.flush();
+
+        double secs = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+        System.out.println("Batch complete:");
+        System.out.println("   Images:  " + images.get() + " processed, " + failures.get() + " failed, "
+                + outputs.get() + " files written" + (cached.get() > 0 ? " (" + cached.get() + " from cache)" : ""));
+        System.out.printf("   Time:    %.2f s%n", secs);
+        System.out.printf("   Rate:    %.2f images/sec, %.2f MB/sec read, %.2f MB/sec written%n",
+                images.get() / secs, bytesIn.get() / 1e6 / secs, bytesOut.get() / 1e6 / secs);
+    }
+
+    private void decode(Path file) {
+        try {
+            ResultCache.Source source = ResultCache.ENABLED ? ResultCache.Source.of(file.toFile()) : null;
+            String hash = (source == null) ? null : ResultCache.knownHash(source);
+            if (hash != null && fetchAll(file, hash)) {
+                images.incrementAndGet();
+                return;
+            }
+
+            long t = Metrics.start();
+            BufferedImage img = ImageIO.read(file.toFile());
+            Metrics.DECODE.stop(t);
+            if (img == null) {
+                fail(file, "format unsupported");
+                return;
+            }
+            bytesIn.addAndGet(Files.size(file));
+            transformStage.execute(() -> transform(file, img, source));
+        } catch (Exception e) {
+            fail(file, e.getMessage());
+        }
+    }
+
+    private void transform(Path file, BufferedImage decoded, ResultCache.Source source) {
+        try {
+            BufferedImage img = decoded;
+            String hash = null;
+            if (source != null) {
+                img = ColorKernels.toIntRGB(img); // converted once, for the hash and the kernels
+                hash = ResultCache.pixelHash(img);
+                ResultCache.rememberHash(source, hash);
+            }
+            for (int type : types) {
+                for (int level : levels(type)) {
+                    File[] targets = targets(file, type, level);
+                    String key = (hash == null) ? null : ResultCache.key(hash, type, level, ColorKernels.LINEAR);
+                    if (key != null && fetch(key, targets)) continue;
+
+                    BufferedImage[] out = ColorAidApp.renderOutputs(img, type, level, ColorKernels.LINEAR);
+                    for (int k = 0; k < out.length; k++) {
+                        BufferedImage image = out[k];
+                        File target = targets[k];
+                        String suffix = SUFFIXES[k];
+                        encodeStage.execute(() -> encode(image, target, key, suffix));
+                    }
+                }
+            }
+            images.incrementAndGet();
+        } catch (Exception e) {
+            fail(file, e.getMessage());
+        }
+    }
+
+    // grayscale has no severity, so it is rendered once
+    private int[] levels(int type) {
+        return (type == 4) ? new int[] {ColorKernels.FULL} : levels;
+    }
+
+    private static File[] targets(Path file, int type, int level) {
+        String name = file.toString();
+        String base = name.contains(".") ? name.substring(0, name.lastIndexOf('.')) : name;
+        String label = ColorAidApp.outputName(type, level, ColorKernels.LINEAR);
+        File[] targets = new File[SUFFIXES.length];
+        for (int k = 0; k < targets.length; k++) {
+            targets[k] = new File(base + "_" + label + SUFFIXES[k] + OutputEncoder.extension());
+        }
+        return targets;
+    }
+
+    // Every output of an unchanged file straight from the cache, or false
+    // (and nothing copied) when any of them has to be rendered.
+    private boolean fetchAll(Path file, String hash) {
+        for (int type : types) {
+            for (int level : levels(type)) {
+                if (!ResultCache.contains(ResultCache.key(hash, type, level, ColorKernels.LINEAR), SUFFIXES)) return false;
+            }
+        }
+        for (int type : types) {
+            for (int level : levels(type)) {
+                String key = ResultCache.key(hash, type, level, ColorKernels.LINEAR);
+                if (!fetch(key, targets(file, type, level))) return false; // evicted since; decode after all
+            }
+        }
+        return true;
+    }
+
+    private boolean fetch(String key, File[] targets) {
+        if (!ResultCache.fetch(key, SUFFIXES, targets)) return false;
+        outputs.addAndGet(targets.length);
+        cached.addAndGet(targets.length);
+        for (File f : targets) bytesOut.addAndGet(f.length());
+        return true;
+    }
+
+    private void encode(BufferedImage image, File target, String key, String suffix) {
+        try {
+            OutputEncoder.write(image, target);
+            outputs.incrementAndGet();
+            bytesOut.addAndGet(target.length());
+            if (key != null) ResultCache.store(key, suffix, target);
+        } catch (Exception e) {
+            System.out.println("Failed to write " + target + ": " + e.getMessage());
+        }
+    }
+
+    private void fail(Path file, String reason) {
+        failures.incrementAndGet();
+        System.out.println("Skipped " + file + ": " + reason);
+    }
+
+    private static ThreadPoolExecutor stage(String name, int threads, int queue) {
+        AtomicInteger n = new AtomicInteger();
+        // Back-pressure: when the queue is full the submitting thread waits for room.
+        RejectedExecutionHandler block = (task, pool) -> {
+            try {
+                if (!pool.isShutdown()) pool.getQueue().put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queue)), r -> {
+                    Thread t = new Thread(r, "batch-" + name + "-" + n.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, block);
+    }
+
+    // Stages only feed later stages, so shutting them down in order is enough.
+    private static void drain(ThreadPoolExecutor stage) {
+        stage.shutdown();
+        try {
+            while (!stage.awaitTermination(1, TimeUnit.SECONDS)) { /* keep waiting */ }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
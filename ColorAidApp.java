@@ -6,6 +6,8 @@ import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.io.*;
 import java.sql.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.List;
 
 import com.itextpdf.text.Document;
 import com.itextpdf.text.Element;
@@ -16,10 +18,22 @@ public class ColorAidApp {
 
     private static final String DB_URL = "jdbc:sqlite:coloraid.db";
     private static final Scanner sc = new Scanner(System.in);
-    private static String currentUsername = "";
-    private static final Stack<Integer> testHistory = new Stack<>(); // note: in-memory only for this run
+    // The console user's session (null when logged out); other front ends open their own.
+    private static Session session;
+    // -Dcoloraid.pipeline=staged falls back to separate simulate/daltonize/compose passes
+    private static final boolean FUSED_PIPELINE =
+            !"staged".equalsIgnoreCase(System.getProperty("coloraid.pipeline", "fused"));
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--serve")) {
+            // headless HTTP mode, see ColorAidServer
+            try {
+                ColorAidServer.main(Arrays.copyOfRange(args, 1, args.length));
+            } catch (IOException e) {
+                System.out.println("Could not start server: " + e.getMessage());
+            }
+            return;
+        }
         createTables();
         System.out.println("=== ColorAid: Visual Aid for Colorblind People ===");
 
@@ -38,17 +52,24 @@ public class ColorAidApp {
                             System.out.println("2. Process Image");
                             System.out.println("3. View My Past Results");
                             System.out.println("4. Undo Last Test Result");
-                            System.out.println("5. Logout");
+                            System.out.println("5. Batch Process Folder");
+                            System.out.println("6. Preview Image");
+                            System.out.println("7. Process Frame Sequence");
+                            System.out.println("8. Logout");
                             System.out.print("Choose: ");
                             String opt = sc.nextLine().trim();
                             switch (opt) {
-                                case "1": runColorBlindnessTest(); break;
+                                case "1": runColorBlindnessTest(session); break;
                                 case "2": processImage(); break;
-                                case "3": viewPastResults(); break;
-                                case "4": undoLastTestResult(); break;
-                                case "5":
+                                case "3": viewPastResults(session); break;
+                                case "4": undoLastTestResult(session); break;
+                                case "5": batchProcessImages(); break;
+                                case "6": previewImage(); break;
+                                case "7": processSequence(); break;
+                                case "8":
                                     back = true;
-                                    currentUsername = "";
+                                    SessionRegistry.close(session.id());
+                                    session = null;
                                     break;
                                 default: System.out.println("Invalid option."); break;
                             }
@@ -57,6 +78,7 @@ public class ColorAidApp {
                     break;
                 case "3":
                     System.out.println("Goodbye!");
+                    DbPool.closeAll();
                     return;
                 default:
                     System.out.println("Invalid choice.");
@@ -65,16 +87,16 @@ public class ColorAidApp {
         }
     }
 
-    private static Connection connectDB() {
-        try {
-            return DriverManager.getConnection(DB_URL);
-        } catch (SQLException e) {
-            System.out.println("Database connection failed: " + e.getMessage());
-            return null;
-        }
+    private static DbPool db() {
+        return DbPool.forUrl(DB_URL);
     }
 
     private static void createTables() {
+        createTables(db());
+    }
+
+    // Schema for any database the app writes to (the benchmark uses a scratch one).
+    static void createTables(DbPool db) {
         String usersTable = "CREATE TABLE IF NOT EXISTS users (username TEXT PRIMARY KEY, password TEXT NOT NULL)";
         String resultsTable = "CREATE TABLE IF NOT EXISTS test_results (" +
                 "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
@@ -82,18 +104,19 @@ public class ColorAidApp {
                 "test_date TEXT NOT NULL DEFAULT (datetime('now')), " +
                 "answers TEXT, " +
                 "result TEXT NOT NULL)";
-        Connection conn = connectDB();
-        if (conn == null) {
-            System.out.println("Cannot create tables: no database connection.");
-            return;
-        }
-        try (Statement stmt = conn.createStatement()) {
-            stmt.execute(usersTable);
-            stmt.execute(resultsTable);
+        try {
+            db.write(s -> {
+                try (Statement stmt = s.connection().createStatement()) {
+                    stmt.execute(usersTable);
+                    stmt.execute(resultsTable);
+                }
+                ResultStore.createIndexes(s);
+                ResultStore.createAnswerTables(s, ColorTest.PLATES);
+                ResultStats.createTables(s);
+                return null;
+            });
         } catch (SQLException e) {
             System.out.println("Could not create tables: " + e.getMessage());
-        } finally {
-            try { conn.close(); } catch (Exception ignored) {}
         }
     }
 
@@ -108,37 +131,25 @@ public class ColorAidApp {
             return;
         }
 
-        Connection conn = connectDB();
-        if (conn == null) {
-            System.out.println("Signup failed: DB connection unavailable.");
-            return;
-        }
-
         String check = "SELECT username FROM users WHERE username=?";
         String insert = "INSERT INTO users(username, password) VALUES(?, ?)";
-        try (PreparedStatement psCheck = conn.prepareStatement(check)) {
-            psCheck.setString(1, u);
-            try (ResultSet rs = psCheck.executeQuery()) {
-                if (rs.next()) {
-                    System.out.println("Username already exists.");
-                    return;
+        try {
+            // check and insert in one write transaction so two sign-ups can't race
+            boolean created = db().write(s -> {
+                PreparedStatement psCheck = s.prepare(check);
+                psCheck.setString(1, u);
+                try (ResultSet rs = psCheck.executeQuery()) {
+                    if (rs.next()) return false;
                 }
-            }
-        } catch (SQLException e) {
-            System.out.println("Signup failed (check): " + e.getMessage());
-            try { conn.close(); } catch (Exception ignored) {}
-            return;
-        }
-
-        try (PreparedStatement ps = conn.prepareStatement(insert)) {
-            ps.setString(1, u);
-            ps.setString(2, p);
-            ps.executeUpdate();
-            System.out.println("Account created successfully!");
+                PreparedStatement ps = s.prepare(insert);
+                ps.setString(1, u);
+                ps.setString(2, p);
+                ps.executeUpdate();
+                return true;
+            });
+            System.out.println(created ? "Account created successfully!" : "Username already exists.");
         } catch (SQLException e) {
             System.out.println("Signup failed: " + e.getMessage());
-        } finally {
-            try { conn.close(); } catch (Exception ignored) {}
         }
     }
 
@@ -148,247 +159,161 @@ public class ColorAidApp {
         System.out.print("Password: ");
         String p = sc.nextLine().trim();
 
-        Connection conn = connectDB();
-        if (conn == null) {
-            System.out.println("Login error: DB connection unavailable.");
-            return false;
-        }
-
-        String query  = "SELECT * FROM users WHERE username=? AND password=?";
-        try (PreparedStatement ps = conn.prepareStatement(query)) {
-            ps.setString(1, u);
-            ps.setString(2, p);
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    currentUsername = u;
-                    System.out.println("Welcome, " + u + "!");
-                    return true;
-                } else {
-                    System.out.println("Wrong credentials.");
-                    return false;
+        String query  = "SELECT 1 FROM users WHERE username=? AND password=?";
+        try {
+            boolean ok = db().read(s -> {
+                PreparedStatement ps = s.prepare(query);
+                ps.setString(1, u);
+                ps.setString(2, p);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next();
                 }
+            });
+            if (ok) {
+                session = SessionRegistry.open(u);
+                System.out.println("Welcome, " + u + "!");
+                return true;
+            } else {
+                System.out.println("Wrong credentials.");
+                return false;
             }
         } catch (SQLException e) {
             System.out.println("Login error: " + e.getMessage());
             return false;
-        } finally {
-            try { conn.close(); } catch (Exception ignored) {}
         }
     }
 
-    private static final String[][] TESTS = {
-        {"plate1.png",  "12", "normal"},
-        {"plate2.jpg",  "8",  "protanopia"},
-        {"plate3.jpg",  "6",  "deuteranopia"},
-        {"plate4.jpg",  "29", "protanopia"},
-        {"plate5.jpg",  "5",  "deuteranopia"},
-        {"plate6.png",  "45", "protanopia"},
-        {"plate7.jpg",  "74", "deuteranopia"},
-        {"plate8.jpg",  "26", "protanopia"},
-        {"plate9.jpg",  "57", "deuteranopia"},
-        {"plate10.png", "97", "protanopia"},
-        {"plate11.png", "73", "deuteranopia"},
-        {"plate12.png", "16", "normal"},
-        {"plate13.png", "7",  "protanopia"},
-        {"plate14.png", "3",  "deuteranopia"},
-        {"plate15.jpg", "35", "protanopia"},
-        {"plate16.png", "23", "tritanopia"},
-        {"plate17.png", "12", "tritanopia"},
-        {"plate18.png", "26", "tritanopia"}
-    };
-
- private static void runColorBlindnessTest() {
-    SwingUtilities.invokeLater(() -> {
-        final int totalPlates = TESTS.length;
-        final int[] index = {0};
-        final int[] protanopiaCount = {0}, deuteranopiaCount = {0}, tritanopiaCount = {0};
-        final StringBuilder answersSB = new StringBuilder();
-
-        JFrame frame = new JFrame("ColorAid - Color Vision Test");
-        frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
-        frame.setSize(700, 600);
-        frame.setLocationRelativeTo(null);
-
-        JPanel topPanel = new JPanel(new BorderLayout());
-        JLabel title = new JLabel("Color Vision Test (Ishihara-style)", SwingConstants.CENTER);
-        title.setFont(new java.awt.Font("Segoe UI", java.awt.Font.BOLD, 18));
-        topPanel.add(title, BorderLayout.CENTER);
-
-        JLabel progressLabel = new JLabel("Plate 1 of " + totalPlates, SwingConstants.CENTER);
-        topPanel.add(progressLabel, BorderLayout.SOUTH);
-
-        JLabel imageLabel = new JLabel("", SwingConstants.CENTER);
-        imageLabel.setPreferredSize(new Dimension(600, 400));
-
-        JPanel bottomPanel = new JPanel(new BorderLayout(8, 8));
-        JTextField answerField = new JTextField();
-        answerField.setFont(new java.awt.Font("Segoe UI", java.awt.Font.PLAIN, 16));
-        answerField.setHorizontalAlignment(SwingConstants.CENTER);
-
-        // ---- NEXT button only ----
-        JPanel controls = new JPanel(new FlowLayout(FlowLayout.CENTER, 20, 10));
-        JButton nextBtn = new JButton("Next");
-        nextBtn.setFont(new java.awt.Font("Segoe UI", java.awt.Font.BOLD, 18));
-        nextBtn.setPreferredSize(new Dimension(120, 38));
-        controls.add(nextBtn);
-
-        // Press Enter = trigger Next
-        answerField.addActionListener(e -> nextBtn.doClick());
-
-        bottomPanel.add(answerField, BorderLayout.CENTER);
-        bottomPanel.add(controls, BorderLayout.SOUTH);
-
-        frame.setLayout(new BorderLayout(10, 10));
-        frame.add(topPanel, BorderLayout.NORTH);
-        frame.add(imageLabel, BorderLayout.CENTER);
-        frame.add(bottomPanel, BorderLayout.SOUTH);
-        frame.setVisible(true);
-
-        Runnable showPlate = new Runnable() {
-            @Override
-            public void run() {
-                if (index[0] >= totalPlates) {
-                    frame.dispose();
-                    String result;
-                    if (protanopiaCount[0] >= 4)
-                        result = "Possible Protanopia (Red Color Blindness)";
-                    else if (deuteranopiaCount[0] >= 4)
-                        result = "Possible Deuteranopia (Green Color Blindness)";
-                    else if (tritanopiaCount[0] >= 2)
-                        result = "Possible Tritanopia (Blue Color Blindness)";
-                    else
-                        result = "Normal Color Vision";
-
-                    saveTestResult(currentUsername, answersSB.toString(), result);
-                    String explanation = buildDetailedExplanation(
-                            protanopiaCount[0], deuteranopiaCount[0], tritanopiaCount[0], result);
-                    showResultWindowDetailed(result, explanation);
-                    return;
-                }
+    private static void runColorBlindnessTest(Session session) {
+        // Start loading the first plates in the background while the window is built.
+        String[] platePaths = ColorTest.platePaths();
+        PlateCache.fetch(platePaths[0]);
+        PlateCache.prefetch(platePaths, 0);
 
-                progressLabel.setText("Plate " + (index[0] + 1) + " of " + totalPlates);
-                String[] test = TESTS[index[0]];
-                String imgPath = test[0];
-                try {
-                    BufferedImage img = ImageIO.read(new File(imgPath));
-                    if (img != null) {
-                        Image scaled = img.getScaledInstance(560, 420, Image.SCALE_SMOOTH);
-                        imageLabel.setIcon(new ImageIcon(scaled));
-                        imageLabel.setText("");
-                    } else {
-                        imageLabel.setIcon(null);
-                        imageLabel.setText("<html><center>Image not found:<br>" + imgPath + "</center></html>");
-                    }
-                } catch (Exception ex) {
-                    imageLabel.setIcon(null);
-                    imageLabel.setText("<html><center>Cannot load image:<br>" + imgPath + "</center></html>");
-                }
-
-                answerField.setText("");
-                answerField.requestFocusInWindow();
-            }
-        };
+        SwingUtilities.invokeLater(() -> {
+            // progress and scoring live in the session's ColorTest; this window only shows it
+            final ColorTest test = session.startTest();
+            final int totalPlates = test.plateCount();
 
-        nextBtn.addActionListener(e -> {
-    String ans = answerField.getText().trim();
-    String[] test = TESTS[index[0]];
-    String expected = test[1];
-    String type = test[2];
+            JFrame frame = new JFrame("ColorAid - Color Vision Test");
+            frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+            frame.setSize(700, 600);
+            frame.setLocationRelativeTo(null);
 
-    if (answersSB.length() > 0) {
-        answersSB.append(",");
-    }
+            JPanel topPanel = new JPanel(new BorderLayout());
+            JLabel title = new JLabel("Color Vision Test (Ishihara-style)", SwingConstants.CENTER);
+            title.setFont(new java.awt.Font("Segoe UI", java.awt.Font.BOLD, 18));
+            topPanel.add(title, BorderLayout.CENTER);
 
-    if (ans.isEmpty()) {
-        // User skipped this plate
-        answersSB.append("Skipped");
-    } else {
-        answersSB.append(ans);
-    }
+            JLabel progressLabel = new JLabel("Plate 1 of " + totalPlates, SwingConstants.CENTER);
+            topPanel.add(progressLabel, BorderLayout.SOUTH);
 
-    // Count only wrong (non-skipped) answers
-    if (!ans.isEmpty() && !ans.equalsIgnoreCase(expected)) {
-        switch (type.toLowerCase()) {
-            case "protanopia":
-                protanopiaCount[0]++;
-                break;
-            case "deuteranopia":
-                deuteranopiaCount[0]++;
-                break;
-            case "tritanopia":
-                tritanopiaCount[0]++;
-                break;
-        }
-    }
+            JLabel imageLabel = new JLabel("", SwingConstants.CENTER);
+            imageLabel.setPreferredSize(new Dimension(600, 400));
 
-    index[0]++;
+            JPanel bottomPanel = new JPanel(new BorderLayout(8, 8));
+            JTextField answerField = new JTextField();
+            answerField.setFont(new java.awt.Font("Segoe UI", java.awt.Font.PLAIN, 16));
+            answerField.setHorizontalAlignment(SwingConstants.CENTER);
 
-    if (index[0] >= totalPlates) {
-        frame.dispose();
+            // ---- NEXT button only ----
+            JPanel controls = new JPanel(new FlowLayout(FlowLayout.CENTER, 20, 10));
+            JButton nextBtn = new JButton("Next");
+            nextBtn.setFont(new java.awt.Font("Segoe UI", java.awt.Font.BOLD, 18));
+            nextBtn.setPreferredSize(new Dimension(120, 38));
+            controls.add(nextBtn);
 
-        // Count how many plates were skipped
-        int skippedCount = 0;
-        for (String part : answersSB.toString().split(",")) {
-            if (part.trim().equalsIgnoreCase("Skipped")) {
-                skippedCount++;
-            }
-        }
+            // Press Enter = trigger Next
+            answerField.addActionListener(e -> nextBtn.doClick());
 
-        String result;
-        if (skippedCount >= totalPlates / 2) {
-            result = "Test Incomplete (Too Many Skipped Answers)";
-        } else if (protanopiaCount[0] >= 4) {
-            result = "Possible Protanopia (Red Color Blindness)";
-        } else if (deuteranopiaCount[0] >= 4) {
-            result = "Possible Deuteranopia (Green Color Blindness)";
-        } else if (tritanopiaCount[0] >= 2) {
-            result = "Possible Tritanopia (Blue Color Blindness)";
-        } else {
-            result = "Normal Color Vision";
-        }
+            bottomPanel.add(answerField, BorderLayout.CENTER);
+            bottomPanel.add(controls, BorderLayout.SOUTH);
 
-        saveTestResult(currentUsername, answersSB.toString(), result);
-        String explanation = buildDetailedExplanation(
-                protanopiaCount[0], deuteranopiaCount[0], tritanopiaCount[0], result
-        ) + "\nSkipped Plates: " + skippedCount;
+            frame.setLayout(new BorderLayout(10, 10));
+            frame.add(topPanel, BorderLayout.NORTH);
+            frame.add(imageLabel, BorderLayout.CENTER);
+            frame.add(bottomPanel, BorderLayout.SOUTH);
+            frame.setVisible(true);
 
-        showResultWindowDetailed(result, explanation);
-        return;
-    }
+            Runnable finish = () -> {
+                frame.dispose();
+                session.endTest();
+                String result = test.result();
+                saveTestResult(session, test.answers(), result);
+                String explanation = buildDetailedExplanation(
+                        test.protanopiaErrors(), test.deuteranopiaErrors(), test.tritanopiaErrors(), result
+                ) + "\nSkipped Plates: " + test.skipped();
+                showResultWindowDetailed(session.username(), result, explanation);
+            };
+
+            Runnable showPlate = new Runnable() {
+                @Override
+                public void run() {
+                    if (test.isFinished()) {
+                        finish.run();
+                        return;
+                    }
 
-    // Load next plate
-    showPlate.run();
-});
-showPlate.run();
+                    int shownIndex = test.index();
+                    progressLabel.setText("Plate " + (shownIndex + 1) + " of " + totalPlates);
+                    String imgPath = test.platePath();
+                    CompletableFuture<BufferedImage> plate = PlateCache.fetch(imgPath);
+                    PlateCache.prefetch(platePaths, shownIndex);
+                    if (!plate.isDone()) {
+                        // user got ahead of the loader
+                        imageLabel.setIcon(null);
+                        imageLabel.setText("Loading plate " + (shownIndex + 1) + "...");
+                    }
+                    plate.whenComplete((scaled, err) -> SwingUtilities.invokeLater(() -> {
+                        if (test.index() != shownIndex) return; // already moved on
+                        if (err != null) {
+                            imageLabel.setIcon(null);
+                            imageLabel.setText("<html><center>Cannot load image:<br>" + imgPath + "</center></html>");
+                        } else if (scaled != null) {
+                            imageLabel.setIcon(new ImageIcon(scaled));
+                            imageLabel.setText("");
+                        } else {
+                            imageLabel.setIcon(null);
+                            imageLabel.setText("<html><center>Image not found:<br>" + imgPath + "</center></html>");
+                        }
+                    }));
 
-});
-    
+                    answerField.setText("");
+                    answerField.requestFocusInWindow();
+                }
+            };
 
-}
+            // records the answer (blank = skipped), then shows the next plate or the result
+            nextBtn.addActionListener(e -> {
+                if (test.isFinished()) return;
+                test.answer(answerField.getText());
+                showPlate.run();
+            });
+            showPlate.run();
+        });
+    }
 
 
-    private static void undoLastTestResult() {
-        if (currentUsername == null || currentUsername.isEmpty()) {
+    private static void undoLastTestResult(Session session) {
+        if (session == null) {
             System.out.println("You must be logged in to undo results.");
             return;
         }
 
-        if (testHistory.isEmpty()) {
+        Integer lastId = session.popUndo();
+        if (lastId == null) {
             System.out.println("No recent test result to undo!");
             return;
         }
 
-        int lastId = testHistory.pop();
         String sql = "DELETE FROM test_results WHERE id = ? AND username = ?";
-        Connection conn = connectDB();
-        if (conn == null) {
-            System.out.println("Undo failed: DB connection unavailable.");
-            return;
-        }
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, lastId);
-            ps.setString(2, currentUsername);
-            int rows = ps.executeUpdate();
+        long t = Metrics.start();
+        try {
+            int rows = db().write(s -> {
+                PreparedStatement ps = s.prepare(sql);
+                ps.setInt(1, lastId);
+                ps.setString(2, session.username());
+                return ps.executeUpdate(); // the answers go with it (ResultStore.ANSWERS_ON_DELETE)
+            });
             if (rows > 0)
                 System.out.println("Successfully undone last test result (ID " + lastId + ")");
             else
@@ -396,92 +321,69 @@ showPlate.run();
         } catch (SQLException e) {
             System.out.println("Undo failed: " + e.getMessage());
         } finally {
-            try { conn.close(); } catch (Exception ignored) {}
+            Metrics.RESULT_UNDO.stop(t);
         }
     }
 
-    private static void saveTestResult(String username, String answers, String result) {
-        if (username == null || username.isEmpty()) {
+    // Queues the result on the write-behind ResultWriter so the Next button
+    // doesn't wait on the insert; the undo history is filled once it commits.
+    private static void saveTestResult(Session session, List<String> answers, String result) {
+        if (session == null) {
             System.out.println("No logged-in user — cannot save result.");
             return;
         }
 
-        String sql = "INSERT INTO test_results(username, test_date, answers, result) VALUES(?, datetime('now'), ?, ?)";
-        Connection conn = connectDB();
-        if (conn == null) {
-            System.out.println("Failed to save result: DB connection unavailable.");
-            return;
-        }
-        try (PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-
-            ps.setString(1, username);
-            ps.setString(2, answers);
-            ps.setString(3, result);
-            ps.executeUpdate();
-
-            try (ResultSet keys = ps.getGeneratedKeys()) {
-                if (keys.next()) {
-                    int id = keys.getInt(1);
-                    testHistory.push(id);
-                    System.out.println("Test result saved (ID " + id + ") — added to undo history!");
-                } else {
-                    System.out.println("Test result saved (no generated key returned).");
-                }
+        ResultWriter.forUrl(DB_URL).submit(session.username(), answers, result).whenComplete((id, err) -> {
+            if (err != null) {
+                System.out.println("Failed to save result: " + err.getMessage());
+            } else {
+                session.resultSaved(id);
+                System.out.println("Test result saved (ID " + id + ") — added to undo history!");
             }
-        } catch (SQLException e) {
-            System.out.println("Failed to save result: " + e.getMessage());
-        } finally {
-            try { conn.close(); } catch (Exception ignored) {}
-        }
+        });
     }
 
-    private static void viewPastResults() {
-        if (currentUsername == null || currentUsername.isEmpty()) {
-            System.out.println("You must be logged in to view past results.");
-            return;
-        }
+    private static final int HISTORY_PAGE_SIZE = 10;
 
-        String sql = "SELECT * FROM test_results WHERE username = ? ORDER BY test_date DESC";
-        Connection conn = connectDB();
-        if (conn == null) {
-            System.out.println("Error retrieving results: DB connection unavailable.");
+    private static void viewPastResults(Session session) {
+        if (session == null) {
+            System.out.println("You must be logged in to view past results.");
             return;
         }
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-
-            ps.setString(1, currentUsername);
-            try (ResultSet rs = ps.executeQuery()) {
 
-                System.out.println("\n───────────────────────────────────────────────");
-                System.out.println("   Past Test Results for: " + currentUsername);
-                System.out.println("───────────────────────────────────────────────");
+        System.out.println("\n───────────────────────────────────────────────");
+        System.out.println("   Past Test Results for: " + session.username());
+        System.out.println("───────────────────────────────────────────────");
 
-                boolean hasResults = false;
-                while (rs.next()) {
+        ResultStore.Cursor cursor = null;
+        boolean hasResults = false;
+        try {
+            while (true) {
+                ResultStore.Page page = ResultStore.history(db(), session.username(), cursor, HISTORY_PAGE_SIZE);
+                for (ResultStore.Row row : page.rows()) {
                     hasResults = true;
-                    String date = rs.getString("test_date");
-                    String result = rs.getString("result");
-                    String answers = rs.getString("answers");
-
-                    System.out.println(" Date: " + date);
-                    System.out.println("Result: " + result);
+                    System.out.println(" Date: " + row.testDate());
+                    System.out.println("Result: " + row.result());
 
-                    if (answers != null && !answers.isEmpty()) {
-                        System.out.println("Answers: [" + answers + "]");
+                    if (row.answers() != null && !row.answers().isEmpty()) {
+                        System.out.println("Answers: [" + row.answers() + "]");
                     }
 
                     System.out.println("───────────────────────────────────────────────");
                 }
+                if (!page.hasMore()) break;
 
-                if (!hasResults) {
-                    System.out.println(" No previous test results found.");
-                    System.out.println("───────────────────────────────────────────────");
-                }
+                System.out.print("Press Enter for older results, or q to stop: ");
+                if (sc.nextLine().trim().equalsIgnoreCase("q")) break;
+                cursor = page.next();
+            }
+
+            if (!hasResults) {
+                System.out.println(" No previous test results found.");
+                System.out.println("───────────────────────────────────────────────");
             }
         } catch (SQLException e) {
             System.out.println(" Error retrieving results: " + e.getMessage());
-        } finally {
-            try { conn.close(); } catch (Exception ignored) {}
         }
     }
 
@@ -493,7 +395,7 @@ showPlate.run();
                 "Result: " + highLevelResult + "\n\nNote: This test is for screening only.";
     }
 
-    private static void showResultWindowDetailed(String result, String explanation) {
+    private static void showResultWindowDetailed(String username, String result, String explanation) {
         SwingUtilities.invokeLater(() -> {
             JFrame frame = new JFrame("Color Vision Test Result");
             frame.setSize(500, 350);
@@ -525,7 +427,7 @@ showPlate.run();
                 int option = chooser.showSaveDialog(frame);
                 if (option == JFileChooser.APPROVE_OPTION) {
                     File file = chooser.getSelectedFile();
-                    exportResultToPDF(file.getAbsolutePath(), result, explanation);
+                    exportResultToPDF(file.getAbsolutePath(), username, result, explanation);
                 }
             });
 
@@ -533,7 +435,7 @@ showPlate.run();
         });
     }
 
-    private static void exportResultToPDF(String filePath, String result, String explanation) {
+    private static void exportResultToPDF(String filePath, String username, String result, String explanation) {
     Document document = new Document();
     try {
         PdfWriter.getInstance(document, new FileOutputStream(filePath));
@@ -560,7 +462,7 @@ showPlate.run();
         // Section: User Information
         Paragraph userSection = new Paragraph("User Information\n", headerFont);
         document.add(userSection);
-        document.add(new Paragraph("Username: " + currentUsername, normalFont));
+        document.add(new Paragraph("Username: " + username, normalFont));
         document.add(new Paragraph("Date: " + new java.util.Date().toString() + "\n\n", normalFont));
 
         // Section: Test Result
@@ -606,15 +508,10 @@ showPlate.run();
     private static void processImage() {
         System.out.print("\nEnter image path: ");
         String path = sc.nextLine().replace("\"", "").trim();
-        BufferedImage img;
-        try {
-            img = ImageIO.read(new File(path));
-            if (img == null) {
-                System.out.println("Image not found or format unsupported.");
-                return;
-            }
-        } catch (Exception e) {
-            System.out.println("Cannot read image.");
+        // Only the header is read here; very large images are streamed in bands below.
+        int[] size = StreamingProcessor.imageSize(new File(path));
+        if (size == null) {
+            System.out.println("Image not found or format unsupported.");
             return;
         }
 
@@ -631,102 +528,214 @@ showPlate.run();
         catch (Exception e) { System.out.println("Invalid input."); return; }
         if (type < 1 || type > 4) { System.out.println("Invalid type."); return; }
 
-        System.out.println("Processing image, please wait...");
+        int level = ColorKernels.FULL;
+        if (type != 4) {
+            System.out.print("Severity (0.0-1.0, blank = 1.0 full): ");
+            level = ColorKernels.parseSeverity(sc.nextLine());
+            if (level < 0) { System.out.println("Invalid severity."); return; }
+        }
 
-        BufferedImage sim = simulateColorBlindness(img, type);
-        BufferedImage cor = (type == 4) ? sim : daltonize(img, sim, type);
-        BufferedImage side = combineSideBySide(img, sim);
+        System.out.println("Processing image, please wait...");
 
         String base = path.contains(".") ? path.substring(0, path.lastIndexOf('.')) : path;
-        String[] names = {"", "protanopia", "deuteranopia", "tritanopia", "grayscale"};
+        String name = outputName(type, level, ColorKernels.LINEAR);
+
+        if (StreamingProcessor.shouldStream(size[0], size[1])) {
+            try {
+                StreamingProcessor.process(new File(path), type, level, ColorKernels.LINEAR, base + "_" + name);
+                System.out.println("Generated simulated, corrected, and comparison images (streamed):");
+                System.out.println("   " + base + "_" + name + "_simulated.png");
+                System.out.println("   " + base + "_" + name + "_corrected.png");
+                System.out.println("   " + base + "_" + name + "_comparison.png");
+            } catch (Exception e) {
+                System.out.println("Failed to process image: " + e.getMessage());
+            }
+            return;
+        }
+
+        String ext = OutputEncoder.extension();
+        File[] files = new File[OUTPUT_SUFFIXES.length];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new File(base + "_" + name + OUTPUT_SUFFIXES[i] + ext);
+        }
+
+        // An unchanged file seen before is served from the cache without decoding.
+        ResultCache.Source source = ResultCache.ENABLED ? ResultCache.Source.of(new File(path)) : null;
+        if (source != null) {
+            String hash = ResultCache.knownHash(source);
+            if (hash != null && fetchCached(ResultCache.key(hash, type, level, ColorKernels.LINEAR), files)) return;
+        }
 
+        BufferedImage img;
         try {
-            ImageIO.write(sim, "png", new File(base + "_" + names[type] + "_simulated.png"));
-            ImageIO.write(cor, "png", new File(base + "_" + names[type] + "_corrected.png"));
-            ImageIO.write(side, "png", new File(base + "_" + names[type] + "_comparison.png"));
+            long t = Metrics.start();
+            img = ImageIO.read(new File(path));
+            Metrics.DECODE.stop(t);
+            if (img == null) {
+                System.out.println("Image not found or format unsupported.");
+                return;
+            }
+        } catch (Exception e) {
+            System.out.println("Cannot read image.");
+            return;
+        }
+
+        // Same pixels under another name, or an edited file that was reverted.
+        String key = null;
+        if (source != null) {
+            img = ColorKernels.toIntRGB(img); // converted once, for the hash and the kernels
+            String hash = ResultCache.pixelHash(img);
+            ResultCache.rememberHash(source, hash);
+            key = ResultCache.key(hash, type, level, ColorKernels.LINEAR);
+            if (fetchCached(key, files)) return;
+        }
+
+        BufferedImage[] outputs = renderOutputs(img, type, level, ColorKernels.LINEAR);
+        img = null; // let the decoded source go before encoding
+
+        try {
+            // the three encodes run in parallel; the comparison image is the slow one
+            OutputEncoder.writeAll(outputs, files);
             System.out.println("Generated simulated, corrected, and comparison images:");
-            System.out.println("   " + base + "_" + names[type] + "_simulated.png");
-            System.out.println("   " + base + "_" + names[type] + "_corrected.png");
-            System.out.println("   " + base + "_" + names[type] + "_comparison.png");
+            for (File f : files) {
+                System.out.println("   " + f.getPath());
+            }
         } catch (Exception e) {
             System.out.println("Failed to save results: " + e.getMessage());
+            return;
+        }
+        if (key != null) {
+            for (int i = 0; i < files.length; i++) ResultCache.store(key, OUTPUT_SUFFIXES[i], files[i]);
+            ResultCache.flush();
         }
     }
 
-    private static BufferedImage simulateColorBlindness(BufferedImage src, int type) {
-        int w = src.getWidth(), h = src.getHeight();
-        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+    private static boolean fetchCached(String key, File[] files) {
+        if (!ResultCache.fetch(key, OUTPUT_SUFFIXES, files)) return false;
+        ResultCache.flush();
+        System.out.println("Up to date (from the result cache):");
+        for (File f : files) {
+            System.out.println("   " + f.getPath());
+        }
+        return true;
+    }
 
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                int rgb = src.getRGB(x, y);
-                int r = (rgb >> 16) & 0xFF;
-                int g = (rgb >> 8) & 0xFF;
-                int b = rgb & 0xFF;
+    // Opens the live preview window; the menu stays usable while it is up.
+    private static void previewImage() {
+        System.out.print("\nEnter image path: ");
+        String path = sc.nextLine().replace("\"", "").trim();
+        PreviewWindow.open(path).join();
+    }
 
-                double nr = r, ng = g, nb = b;
+    private static void batchProcessImages() {
+        System.out.print("\nEnter folder or glob (e.g. photos/*.jpg): ");
+        String source = sc.nextLine().replace("\"", "").trim();
+        System.out.print("Types to generate (1-4, comma separated, blank = all): ");
+        String typeText = sc.nextLine().trim();
+        int[] types = BatchProcessor.parseTypes(typeText.isEmpty() ? "1,2,3,4" : typeText);
+        if (types == null) { System.out.println("Invalid type."); return; }
+        System.out.print("Severities (0.0-1.0, comma separated, blank = 1.0): ");
+        String severityText = sc.nextLine().trim();
+        int[] levels = BatchProcessor.parseSeverities(severityText.isEmpty() ? "1" : severityText);
+        if (levels == null) { System.out.println("Invalid severity."); return; }
+        BatchProcessor.run(source, types, levels);
+    }
 
-                switch (type) {
-                    case 1 -> { nr = 0.56667*r + 0.43333*g; ng = 0.55833*r + 0.44167*g; nb = 0.24167*g + 0.75833*b; }
-                    case 2 -> { nr = 0.625*r + 0.375*g; ng = 0.7*r + 0.3*g; nb = 0.3*g + 0.7*b; }
-                    case 3 -> { nr = 0.95*r + 0.05*g; ng = 0.43333*g + 0.56667*b; nb = 0.475*g + 0.525*b; }
-                    case 4 -> { int gray = (r+g+b)/3; nr=ng=nb=gray; }
-                }
-                int newRGB = (clamp((int) nr) << 16) | (clamp((int) ng) << 8) | clamp((int) nb);
-                out.setRGB(x, y, newRGB);
-            }
-        }
-        return out;
+    private static void processSequence() {
+        System.out.print("\nEnter folder of numbered frames: ");
+        String dir = sc.nextLine().replace("\"", "").trim();
+        System.out.print("Type (1-4): ");
+        int[] types = BatchProcessor.parseTypes(sc.nextLine().trim());
+        if (types == null || types.length != 1) { System.out.println("Invalid type."); return; }
+        System.out.print("Severity (0.0-1.0, blank = 1.0): ");
+        int level = ColorKernels.parseSeverity(sc.nextLine());
+        if (level < 0) { System.out.println("Invalid severity."); return; }
+        SequenceProcessor.run(new File(dir).toPath(), types[0], level, null);
     }
 
-    private static BufferedImage daltonize(BufferedImage orig, BufferedImage sim, int type) {
-        int w = orig.getWidth(), h = orig.getHeight();
-        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+    private static final String[] TYPE_NAMES = {"", "protanopia", "deuteranopia", "tritanopia", "grayscale"};
+    static final String[] OUTPUT_SUFFIXES = {"_simulated", "_corrected", "_comparison"};
 
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                int oRGB = orig.getRGB(x, y);
-                int sRGB = sim.getRGB(x, y);
+    // "protanopia" at full severity, "protanopia_60" at 0.6, with "_linear"
+    // appended in linear-light mode.
+    static String outputName(int type, int level, boolean linear) {
+        String name = TYPE_NAMES[type];
+        if (!ColorKernels.isFull(type, level)) name += "_" + Math.round(ColorKernels.severity(level) * 100);
+        return linear ? name + "_linear" : name;
+    }
 
-                int r = (oRGB >> 16) & 0xFF;
-                int g = (oRGB >> 8) & 0xFF;
-                int b = oRGB & 0xFF;
+    // Returns {simulated, corrected, comparison} for one source image at a
+    // severity level (ColorKernels.FULL for complete dichromacy), optionally
+    // computed in linear light.
+    static BufferedImage[] renderOutputs(BufferedImage img, int type, int level, boolean linear) {
+        // Decode-side conversion happens once here; the kernels then read the int[] directly.
+        BufferedImage src = ColorKernels.toIntRGB(img);
+        if (!FUSED_PIPELINE) {
+            BufferedImage sim = simulateColorBlindness(src, type, level, linear);
+            BufferedImage cor = (type == 4) ? sim : daltonize(src, sim, type, level, linear);
+            return new BufferedImage[] {sim, cor, combineSideBySide(img, sim)};
+        }
 
-                int sr = (sRGB >> 16) & 0xFF;
-                int sg = (sRGB >> 8) & 0xFF;
-                int sb = sRGB & 0xFF;
+        // Fused: one read per source pixel. The simulated image is a view onto
+        // the right half of the comparison canvas rather than its own buffer.
+        int w = src.getWidth(), h = src.getHeight();
+        int[] in = ColorKernels.pixels(src);
+        BufferedImage side = new BufferedImage(w * 2, h, BufferedImage.TYPE_INT_RGB);
+        BufferedImage cor = (type == 4) ? null : new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        int[] sidePx = ColorKernels.pixels(side);
+        int[] corPx = (cor == null) ? null : ColorKernels.pixels(cor);
+        boolean opaque = !img.getColorModel().hasAlpha();
+
+        long t = Metrics.start();
+        TileEngine.run(h, (y0, y1) -> ColorKernels.fused(in, w, sidePx, corPx, y0, y1, type, level, linear, opaque));
+        Metrics.FUSED.stop(t);
+        if (!opaque) {
+            t = Metrics.start();
+            Graphics2D g = side.createGraphics();
+            g.drawImage(img, 0, 0, null);
+            g.dispose();
+            Metrics.COMPOSE.stop(t);
+        }
 
-                int dr = r - sr;
-                int dg = g - sg;
-                int db = b - sb;
+        BufferedImage sim = side.getSubimage(w, 0, w, h);
+        return new BufferedImage[] {sim, (cor == null) ? sim : cor, side};
+    }
 
-                double nr=r, ng=g, nb=b;
+    static BufferedImage simulateColorBlindness(BufferedImage src, int type, int level, boolean linear) {
+        int w = src.getWidth(), h = src.getHeight();
+        int[] in = ColorKernels.pixels(ColorKernels.toIntRGB(src));
+        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        int[] px = ColorKernels.pixels(out);
 
-                switch(type){
-                    case 1 -> { nr=r; ng=g+3*dr; nb=b+1*dr; }
-                    case 2 -> { nr=r+3*dg; ng=g; nb=b+1*dg; }
-                    case 3 -> { nr=r+1*db; ng=g+1*db; nb=b; }
-                }
+        long t = Metrics.start();
+        TileEngine.run(h, (y0, y1) -> ColorKernels.simulate(in, px, y0 * w, y1 * w, type, level, linear));
+        Metrics.SIMULATE.stop(t);
+        return out;
+    }
 
-                int newRGB = (clamp((int) nr) << 16) | (clamp((int) ng) << 8) | clamp((int) nb);
-                out.setRGB(x, y, newRGB);
-            }
-        }
+    static BufferedImage daltonize(BufferedImage orig, BufferedImage sim, int type, int level, boolean linear) {
+        int w = orig.getWidth(), h = orig.getHeight();
+        int[] o = ColorKernels.pixels(ColorKernels.toIntRGB(orig));
+        int[] s = ColorKernels.pixels(ColorKernels.toIntRGB(sim));
+        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        int[] px = ColorKernels.pixels(out);
+
+        long t = Metrics.start();
+        TileEngine.run(h, (y0, y1) -> ColorKernels.daltonize(o, s, px, y0 * w, y1 * w, type, level, linear));
+        Metrics.DALTONIZE.stop(t);
         return out;
     }
 
-    private static BufferedImage combineSideBySide(BufferedImage normal, BufferedImage simulated) {
+    static BufferedImage combineSideBySide(BufferedImage normal, BufferedImage simulated) {
         int w = normal.getWidth(), h = normal.getHeight();
         BufferedImage out = new BufferedImage(w*2, h, BufferedImage.TYPE_INT_RGB);
 
+        long t = Metrics.start();
         Graphics2D g = out.createGraphics();
         g.drawImage(normal, 0, 0, null);
         g.drawImage(simulated, w, 0, null);
         g.dispose();
+        Metrics.COMPOSE.stop(t);
         return out;
     }
-
-    private static int clamp(int val) {
-        return Math.max(0, Math.min(255, val));
-    }
 }
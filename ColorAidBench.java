@@ -0,0 +1,296 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Pattern;
+import javax.imageio.ImageIO;
+
+// Benchmarks for the image kernels and the persistence path. There is no
+// build tool here to pull JMH in, so this is a small harness run the same
+// way: every benchmark gets timed warmup iterations, then fixed-length
+// measured iterations, and reports the mean time per operation with its
+// spread. Inputs are the bundled plates, image1.jpeg and synthetic 1/10/40
+// megapixel images; each input is released before the next is built.
+//
+//   java ColorAidBench [regex on "benchmark/input", e.g. "simulate|render"]
+//
+//   -Dcoloraid.bench.sizes=1,10,40   synthetic megapixels (40 MP needs about -Xmx2g)
+//   -Dcoloraid.bench.warmupMs=N      per benchmark (default 1000)
+//   -Dcoloraid.bench.iterations=N    measured iterations (default 5)
+//   -Dcoloraid.bench.iterationMs=N   length of each (default 1000)
+//   -Dcoloraid.bench.out=FILE        also write results as .json or .csv
+//
+// The kernel flags (-Dcoloraid.kernel, -Dcoloraid.pipeline,
+// -Dcoloraid.parallelism, ...) apply as usual and are recorded with the results.
+class ColorAidBench {
+
+    private static final long WARMUP_MS = Long.getLong("coloraid.bench.warmupMs", 1000);
+    private static final int ITERATIONS = Integer.getInteger("coloraid.bench.iterations", 5);
+    private static final long ITERATION_MS = Long.getLong("coloraid.bench.iterationMs", 1000);
+    private static final String[] TYPE_NAMES = {"", "protanopia", "deuteranopia", "tritanopia", "grayscale"};
+
+    interface Op {
+        void run() throws Exception;
+    }
+
+    record Result(String benchmark, String input, int type, long pixels, int iterations,
+                  double msPerOp, double msError, double opsPerSec) {
+        double mpixPerSec() {
+            return pixels == 0 ? 0 : pixels * opsPerSec / 1e6;
+        }
+    }
+
+    private final Pattern filter;
+    private final List<Result> results = new ArrayList<>();
+    private static volatile long sink; // keeps results observable so the JIT can't drop the work
+
+    ColorAidBench(Pattern filter) {
+        this.filter = filter;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Pattern filter = Pattern.compile(args.length > 0 ? args[0] : ".*");
+        ColorAidBench bench = new ColorAidBench(filter);
+        System.out.println("ColorAid benchmarks: kernel=" + ColorKernels.KERNEL
+                + ", parallelism=" + TileEngine.getParallelism() + ", java=" + System.getProperty("java.version"));
+        System.out.printf("%-22s %-26s %4s %12s %10s %12s %10s%n",
+                "benchmark", "input", "type", "ms/op", "error", "ops/s", "MP/s");
+
+        bench.imageBenchmarks();
+        bench.databaseBenchmarks();
+
+        String out = System.getProperty("coloraid.bench.out");
+        if (out != null) {
+            bench.write(new File(out));
+            System.out.println("Results written to " + out);
+        }
+        DbPool.closeAll();
+    }
+
+    // ---- images ----
+
+    private void imageBenchmarks() throws IOException {
+        List<Path> fixtures = new ArrayList<>();
+        try (var files = Files.list(Paths.get("."))) {
+            files.filter(p -> p.getFileName().toString().toLowerCase().matches("plate\\d+\\.(png|jpg)"))
+                 .sorted()
+                 .forEach(fixtures::add);
+        }
+        Path photo = Paths.get("image1.jpeg");
+        if (Files.exists(photo)) fixtures.add(photo);
+
+        for (Path file : fixtures) {
+            byte[] bytes = Files.readAllBytes(file);
+            BufferedImage img = ImageIO.read(new ByteArrayInputStream(bytes));
+            if (img == null) continue;
+            String name = file.getFileName().toString();
+            bench("decode", name, 0, pixels(img), () -> sink += ImageIO.read(new ByteArrayInputStream(bytes)).getWidth());
+            kernelBenchmarks(name, img);
+        }
+
+        for (String mp : System.getProperty("coloraid.bench.sizes", "1,10,40").split(",")) {
+            int megapixels = Integer.parseInt(mp.trim());
+            BufferedImage img;
+            try {
+                img = synthetic(megapixels);
+            } catch (OutOfMemoryError e) {
+                System.out.println("Skipping " + megapixels + " MP input: not enough heap");
+                continue;
+            }
+            kernelBenchmarks("synthetic-" + megapixels + "mp", img);
+        }
+
+        Op clamp = () -> {
+            long acc = 0;
+            for (int v = -512; v < 512; v++) acc += ColorKernels.clamp(v);
+            sink += acc;
+        };
+        bench("clamp", "-512..511", 0, 1024, clamp);
+    }
+
+    // The stages of processImage for every deficiency type, then the encode.
+    private void kernelBenchmarks(String input, BufferedImage img) throws IOException {
+        long px = pixels(img);
+        BufferedImage src = ColorKernels.toIntRGB(img);
+        BufferedImage comparison = null;
+        for (int type = 1; type <= 4; type++) {
+            int t = type;
+            BufferedImage sim;
+            try {
+                sim = ColorAidApp.simulateColorBlindness(src, t, ColorKernels.FULL, false);
+            } catch (OutOfMemoryError e) {
+                System.out.println("Skipping " + input + ": not enough heap");
+                return;
+            }
+            // gamma-space ("simulate") and linear-light ("simulate-linear") side by side
+            for (boolean linear : new boolean[] {false, true}) {
+                String mode = linear ? "-linear" : "";
+                BufferedImage s = linear ? ColorAidApp.simulateColorBlindness(src, t, ColorKernels.FULL, true) : sim;
+                bench("simulate" + mode, input, t, px,
+                        () -> sink += ColorAidApp.simulateColorBlindness(src, t, ColorKernels.FULL, linear).getRGB(0, 0));
+                bench("daltonize" + mode, input, t, px,
+                        () -> sink += ColorAidApp.daltonize(src, s, t, ColorKernels.FULL, linear).getRGB(0, 0));
+                bench("render" + mode, input, t, px,
+                        () -> sink += ColorAidApp.renderOutputs(img, t, ColorKernels.FULL, linear)[2].getRGB(0, 0));
+            }
+            bench("compose", input, t, px, () -> sink += ColorAidApp.combineSideBySide(img, sim).getRGB(0, 0));
+            if (t != 4) {
+                // one op = one render, stepping through every severity level in turn
+                int[] level = {0};
+                bench("render-sweep", input, t, px, () -> {
+                    sink += ColorAidApp.renderOutputs(img, t, level[0], false)[2].getRGB(0, 0);
+                    level[0] = (level[0] + 1) % (ColorKernels.FULL + 1);
+                });
+            }
+            if (t == 1) comparison = ColorAidApp.combineSideBySide(img, sim);
+        }
+
+        // Encoding 40 MP takes seconds per op; the smaller inputs say enough.
+        if (px <= 12_000_000L && comparison != null) {
+            BufferedImage side = comparison;
+            File tmp = File.createTempFile("coloraid-bench", OutputEncoder.extension());
+            tmp.deleteOnExit();
+            bench("encode-" + OutputEncoder.FORMAT, input, 1, pixels(side), () -> {
+                OutputEncoder.write(side, tmp);
+                sink += tmp.length();
+            });
+            tmp.delete();
+        }
+    }
+
+    // Deterministic noise with some smooth structure, so PNG and the kernels
+    // see neither a flat image nor pure entropy.
+    private static BufferedImage synthetic(int megapixels) {
+        int w = (int) Math.round(Math.sqrt(megapixels * 1_000_000.0 * 4 / 3));
+        int h = megapixels * 1_000_000 / w;
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        int[] px = ColorKernels.pixels(img);
+        Random rnd = new Random(42);
+        for (int y = 0, i = 0; y < h; y++) {
+            for (int x = 0; x < w; x++, i++) {
+                int r = (x * 255 / w + rnd.nextInt(16)) & 0xFF;
+                int g = (y * 255 / h + rnd.nextInt(16)) & 0xFF;
+                int b = ((x + y) & 0xFF) ^ rnd.nextInt(8);
+                px[i] = (r << 16) | (g << 8) | b;
+            }
+        }
+        return img;
+    }
+
+    // ---- database ----
+
+    private void databaseBenchmarks() throws IOException, SQLException {
+        Path file = Files.createTempFile("coloraid-bench", ".db");
+        String url = "jdbc:sqlite:" + file;
+        try {
+            DbPool db = DbPool.forUrl(url);
+            ColorAidApp.createTables(db);
+            ResultWriter writer = ResultWriter.forUrl(url);
+            List<String> answers = Arrays.asList("12", "8", null, "29", "5", "45", "74", "26", "57",
+                    "97", "73", "16", "7", null, "35", "23", "12", "26");
+
+            // what the Next button waits for at the end of a test, one result at a time
+            bench("db-insert", "single", 0, 0, () -> sink += writer.submit("bench", answers, "Normal Color Vision").join());
+            // many sessions finishing together; one op = 100 results
+            bench("db-insert", "burst-100", 0, 0, () -> {
+                List<CompletableFuture<Integer>> ids = new ArrayList<>(100);
+                for (int i = 0; i < 100; i++) ids.add(writer.submit("bench" + (i & 15), answers, "Normal Color Vision"));
+                for (CompletableFuture<Integer> id : ids) sink += id.join();
+            });
+
+            // viewPastResults: the first page, and page 200 of a 5000-result history
+            List<CompletableFuture<Integer>> seeded = new ArrayList<>(5000);
+            for (int i = 0; i < 5000; i++) seeded.add(writer.submit("history", answers, "Normal Color Vision"));
+            seeded.forEach(CompletableFuture::join);
+            ResultStore.Cursor deep = null;
+            for (int i = 0; i < 199; i++) {
+                deep = ResultStore.history(db, "history", deep, 10).next();
+            }
+            ResultStore.Cursor page200 = deep;
+            bench("db-history", "first-page", 0, 0, () -> sink += ResultStore.history(db, "history", null, 10).rows().size());
+            bench("db-history", "page-200", 0, 0, () -> sink += ResultStore.history(db, "history", page200, 10).rows().size());
+            bench("db-stats", "per-plate", 0, 0, () -> sink += ResultStore.plateStats(db).size());
+        } finally {
+            DbPool.closeAll();
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(Paths.get(file + "-wal"));
+            Files.deleteIfExists(Paths.get(file + "-shm"));
+        }
+    }
+
+    // ---- harness ----
+
+    private void bench(String benchmark, String input, int type, long pixels, Op op) {
+        String id = benchmark + "/" + input + (type > 0 ? "/" + TYPE_NAMES[type] : "");
+        if (!filter.matcher(id).find()) return;
+        try {
+            runFor(op, WARMUP_MS);
+            double[] msPerOp = new double[ITERATIONS];
+            for (int i = 0; i < ITERATIONS; i++) {
+                msPerOp[i] = runFor(op, ITERATION_MS);
+            }
+            double mean = Arrays.stream(msPerOp).average().orElse(0);
+            double var = Arrays.stream(msPerOp).map(v -> (v - mean) * (v - mean)).sum() / Math.max(1, ITERATIONS - 1);
+            Result r = new Result(benchmark, input, type, pixels, ITERATIONS, mean, Math.sqrt(var), 1000 / mean);
+            results.add(r);
+            System.out.printf(Locale.ROOT, "%-22s %-26s %4s %12.4f %10.4f %12.1f %10s%n",
+                    benchmark, input, type > 0 ? type : "-", r.msPerOp(), r.msError(), r.opsPerSec(),
+                    pixels > 0 ? String.format(Locale.ROOT, "%.1f", r.mpixPerSec()) : "-");
+        } catch (Exception | OutOfMemoryError e) {
+            System.out.println("Failed " + id + ": " + e);
+        }
+    }
+
+    // Runs op until at least ms have passed (and at least once); returns ms per op.
+    private static double runFor(Op op, long ms) throws Exception {
+        long deadline = System.nanoTime() + ms * 1_000_000L;
+        long start = System.nanoTime();
+        long ops = 0;
+        do {
+            op.run();
+            ops++;
+        } while (System.nanoTime() < deadline);
+        return (System.nanoTime() - start) / 1e6 / ops;
+    }
+
+    private static long pixels(BufferedImage img) {
+        return (long) img.getWidth() * img.getHeight();
+    }
+
+    private void write(File file) throws IOException {
+        boolean csv = file.getName().toLowerCase().endsWith(".csv");
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+            if (csv) {
+                out.println("benchmark,input,type,pixels,iterations,ms_per_op,ms_error,ops_per_sec,mpix_per_sec,kernel,parallelism");
+                for (Result r : results) {
+                    out.printf(Locale.ROOT, "%s,%s,%d,%d,%d,%.6f,%.6f,%.3f,%.3f,%s,%d%n",
+                            r.benchmark(), r.input(), r.type(), r.pixels(), r.iterations(), r.msPerOp(),
+                            r.msError(), r.opsPerSec(), r.mpixPerSec(), ColorKernels.KERNEL, TileEngine.getParallelism());
+                }
+                return;
+            }
+            out.printf(Locale.ROOT, "{\"kernel\":\"%s\",\"parallelism\":%d,\"java\":\"%s\",\"results\":[%n",
+                    ColorKernels.KERNEL, TileEngine.getParallelism(), System.getProperty("java.version"));
+            for (int i = 0; i < results.size(); i++) {
+                Result r = results.get(i);
+                out.printf(Locale.ROOT, "  {\"benchmark\":\"%s\",\"input\":\"%s\",\"type\":%d,\"pixels\":%d,"
+                                + "\"iterations\":%d,\"msPerOp\":%.6f,\"msError\":%.6f,\"opsPerSec\":%.3f,\"mpixPerSec\":%.3f}%s%n",
+                        r.benchmark(), r.input(), r.type(), r.pixels(), r.iterations(), r.msPerOp(), r.msError(),
+                        r.opsPerSec(), r.mpixPerSec(), i + 1 < results.size() ? "," : "");
+            }
+            out.println("]}");
+        }
+    }
+}
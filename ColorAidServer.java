@@ -0,0 +1,282 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+// Headless HTTP mode: the simulate/daltonize pipeline without the Scanner
+// menu, on the JDK's built-in server. Every request gets its own virtual
+// thread, so slow uploads and downloads cost nothing; the CPU-bound part
+// (decode, render, PNG encode into memory) runs only while holding one of
+// WORKERS permits, and the permit is back before the response is sent. Each
+// permit comes with a set of pixel buffers that are reused from request to
+// request instead of allocating three images per call.
+//
+//   POST /simulate?type=1..4&severity=0.0..1.0&linear=true|false&output=simulated|corrected|comparison
+//        (body: the image; linear defaults to -Dcoloraid.linear)
+//   GET  /health
+//
+//   java ColorAidServer [port]   or   java ColorAidApp --serve [port]
+//
+//   -Dcoloraid.server.port=N       (default 8080)
+//   -Dcoloraid.server.workers=N    concurrent renders (default: CPU count)
+//   -Dcoloraid.server.queueMs=N    wait for a worker before answering 503 (default 2000)
+//   -Dcoloraid.server.maxBytes=N   largest upload (default 32 MB)
+//   -Dcoloraid.server.maxPixels=N  largest image (default 16M pixels)
+//   -Dcoloraid.server.keepPixels=N largest image whose buffers a worker keeps
+//                                  for the next request (default 4M pixels, about 64 MB)
+class ColorAidServer {
+
+    static final int WORKERS = Math.max(1, Integer.getInteger("coloraid.server.workers",
+            Runtime.getRuntime().availableProcessors()));
+    private static final long QUEUE_MS = Long.getLong("coloraid.server.queueMs", 2000);
+    private static final int MAX_BYTES = Integer.getInteger("coloraid.server.maxBytes", 32 * 1024 * 1024);
+    private static final long MAX_PIXELS = Long.getLong("coloraid.server.maxPixels", 16_000_000L);
+    private static final int KEEP_PIXELS = Integer.getInteger("coloraid.server.keepPixels", 4_000_000);
+    private static final String[] OUTPUTS = {"simulated", "corrected", "comparison"};
+
+    // Scratch arrays owned by whoever holds a worker permit. They grow to
+    // what the largest image so far needed, but trim() lets go of anything
+    // sized past KEEP_PIXELS once the request is done.
+    private static final class Buffers {
+        int[] src = new int[0], side = new int[0], cor = new int[0];
+
+        int[] src(int n) { return src.length >= n ? src : (src = new int[n]); }
+        int[] side(int n) { return side.length >= n ? side : (side = new int[n]); }
+        int[] cor(int n) { return cor.length >= n ? cor : (cor = new int[n]); }
+
+        void trim() {
+            if (src.length > KEEP_PIXELS) src = new int[0];
+            if (side.length > 2L * KEEP_PIXELS) side = new int[0];
+            if (cor.length > KEEP_PIXELS) cor = new int[0];
+        }
+    }
+
+    private static final Semaphore workers = new Semaphore(WORKERS);
+    private static final BlockingQueue<Buffers> buffers = new ArrayBlockingQueue<>(WORKERS);
+
+    static {
+        for (int i = 0; i < WORKERS; i++) buffers.add(new Buffers());
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = Integer.getInteger("coloraid.server.port", 8080);
+        if (args.length > 0) {
+            try {
+                port = Integer.parseInt(args[0]);
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid port: " + args[0]);
+                return;
+            }
+        }
+        start(port);
+    }
+
+    static HttpServer start(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 256);
+        server.createContext("/simulate", ColorAidServer::simulate);
+        server.createContext("/health", ex -> send(ex, 200, "ok\n"));
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        System.out.println("ColorAid server listening on port " + server.getAddress().getPort()
+                + " (" + WORKERS + " workers)");
+        return server;
+    }
+
+    private static void simulate(HttpExchange ex) throws IOException {
+        try (ex) {
+            if (!"POST".equalsIgnoreCase(ex.getRequestMethod())) {
+                ex.getResponseHeaders().set("Allow", "POST");
+                send(ex, 405, "Use POST with the image as the request body.\n");
+                return;
+            }
+            Map<String, String> query = query(ex.getRequestURI().getRawQuery());
+            int type = parseType(query.get("type"));
+            int level = ColorKernels.parseSeverity(query.get("severity"));
+            String mode = query.get("linear");
+            boolean linear = (mode == null) ? ColorKernels.LINEAR : Boolean.parseBoolean(mode);
+            int output = Arrays.asList(OUTPUTS).indexOf(query.getOrDefault("output", "comparison").toLowerCase());
+            if (type < 0 || level < 0 || output < 0) {
+                send(ex, 400, "Expected type=1..4, severity=0.0..1.0 (default 1) "
+                        + "and output=simulated|corrected|comparison.\n");
+                return;
+            }
+
+            // Read the upload before taking a worker, so slow clients don't hold one.
+            byte[] body;
+            try (InputStream in = ex.getRequestBody()) {
+                body = in.readNBytes(MAX_BYTES + 1);
+            }
+            if (body.length > MAX_BYTES) {
+                send(ex, 413, "Image larger than " + MAX_BYTES + " bytes.\n");
+                return;
+            }
+
+            if (!workers.tryAcquire(QUEUE_MS, TimeUnit.MILLISECONDS)) {
+                ex.getResponseHeaders().set("Retry-After", "1");
+                send(ex, 503, "Server busy, try again.\n");
+                return;
+            }
+            Buffers buf = buffers.poll(); // one per permit, so never empty here
+            ByteArrayOutputStream png = null;
+            RuntimeException failed = null;
+            try {
+                png = render(body, type, level, linear, output, buf);
+            } catch (IOException e) {
+                // a format ImageIO knows but a corrupt or truncated file: same 400 as unreadable
+            } catch (RuntimeException e) {
+                failed = e;
+            } finally {
+                buf.trim();
+                buffers.offer(buf);
+                workers.release();
+            }
+
+            // the download happens without a permit, at whatever pace the client reads
+            if (failed != null) {
+                System.out.println("Request failed: " + failed);
+                send(ex, 500, "Could not process the image.\n");
+                return;
+            }
+            if (png == null) {
+                send(ex, 400, "Not a readable image, or larger than " + MAX_PIXELS + " pixels.\n");
+                return;
+            }
+            ex.getResponseHeaders().set("Content-Type", "image/png");
+            ex.sendResponseHeaders(200, png.size());
+            try (OutputStream out = ex.getResponseBody()) {
+                png.writeTo(out);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException e) {
+            // the response may already have started; all we can do is log it
+            System.out.println("Request failed: " + e);
+        }
+    }
+
+    // The requested output as PNG bytes, or null if the body isn't an image
+    // the server takes; IOException if it is one but fails to decode.
+    private static ByteArrayOutputStream render(byte[] body, int type, int level, boolean linear, int output,
+                                                Buffers buf) throws IOException {
+        long t = Metrics.start();
+        BufferedImage img = decode(body);
+        Metrics.DECODE.stop(t);
+        if (img == null) return null;
+        int w = img.getWidth(), h = img.getHeight(), n = w * h;
+        boolean opaque = !img.getColorModel().hasAlpha();
+
+        // Same fused kernel as ColorAidApp.renderOutputs, writing into reused arrays.
+        int[] in;
+        if (ColorKernels.isPackedInt(img)) {
+            in = ColorKernels.pixels(img);
+        } else {
+            in = buf.src(n);
+            ColorKernels.toIntRGB(img, in);
+        }
+        int[] side = buf.side(2 * n);
+        int[] cor = (output == 1 && type != 4) ? buf.cor(n) : null;
+        boolean original = output == 2;
+        t = Metrics.start();
+        TileEngine.run(h, (y0, y1) -> ColorKernels.fused(in, w, side, cor, y0, y1, type, level, linear, original && opaque));
+        Metrics.FUSED.stop(t);
+        if (original && !opaque) {
+            // composite the original as renderOutputs does: drawn over a black canvas
+            for (int y = 0; y < h; y++) Arrays.fill(side, y * 2 * w, y * 2 * w + w, 0);
+            Graphics2D g = wrap(side, 2 * w, h).createGraphics();
+            g.drawImage(img, 0, 0, null);
+            g.dispose();
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+        int pngLevel = OutputEncoder.pngLevel();
+        t = Metrics.start();
+        try (PngStripWriter png = new PngStripWriter(bytes, original ? 2 * w : w, h, pngLevel)) {
+            if (original) png.writeRows(side, 0, 2 * w, h);
+            else if (cor != null) png.writeRows(cor, 0, w, h);
+            else png.writeRows(side, w, 2 * w, h); // simulated, and "corrected" for grayscale
+        }
+        Metrics.ENCODE.stop(t);
+        return bytes;
+    }
+
+    // Reads the header first so oversized images are refused before decoding.
+    private static BufferedImage decode(byte[] body) throws IOException {
+        // memory cache: ImageIO would otherwise spool the upload to a temp file
+        try (ImageInputStream iis = new MemoryCacheImageInputStream(new ByteArrayInputStream(body))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) return null;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                if ((long) reader.getWidth(0) * reader.getHeight(0) > MAX_PIXELS) return null;
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // An INT_RGB image over the first w*h entries of a reused array.
+    private static BufferedImage wrap(int[] px, int w, int h) {
+        DirectColorModel cm = new DirectColorModel(24, 0xFF0000, 0x00FF00, 0x0000FF);
+        WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(px, w * h), w, h, w,
+                cm.getMasks(), null);
+        return new BufferedImage(cm, raster, false, null);
+    }
+
+    private static int parseType(String text) {
+        if (text == null) return -1;
+        try {
+            int t = Integer.parseInt(text.trim());
+            return (t >= 1 && t <= 4) ? t : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static Map<String, String> query(String raw) {
+        Map<String, String> params = new HashMap<>();
+        if (raw == null) return params;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq <= 0) continue;
+            params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static void send(HttpExchange ex, int status, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
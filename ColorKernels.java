@@ -0,0 +1,399 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
+
+// Pixel kernels for the color blindness transforms. They work directly on the
+// int[] behind TYPE_INT_RGB / TYPE_INT_ARGB rasters instead of going through
+// getRGB/setRGB for every pixel.
+public class ColorKernels {
+
+    // Simulation matrices per type, rows giving new r, g, b from old r, g, b.
+    // Mirrors the coefficients in simulatePixel; type 4 (grayscale) has none.
+    static final double[][][] MATRICES = {
+        null,
+        {{0.56667, 0.43333, 0}, {0.55833, 0.44167, 0}, {0, 0.24167, 0.75833}},
+        {{0.625, 0.375, 0}, {0.7, 0.3, 0}, {0, 0.3, 0.7}},
+        {{0.95, 0.05, 0}, {0, 0.43333, 0.56667}, {0, 0.475, 0.525}},
+        null
+    };
+
+    // Part of every ResultCache key; bump it whenever any output pixel can change.
+    static final int ALGORITHM_VERSION = 1;
+
+    // Severity 0.0-1.0 for types 1-3 (anomalous trichromacy up to full
+    // dichromacy), held as a level 0..FULL so derived tables can be cached per
+    // level. A level's matrix is (1 - s) * identity + s * MATRICES[type]; FULL
+    // keeps the exact code above, so full-severity output is unchanged.
+    //   -Dcoloraid.severity.steps=N  levels between 0 and 1 (default 10)
+    static final int SEVERITY_STEPS = Math.max(1, Math.min(1000, Integer.getInteger("coloraid.severity.steps", 10)));
+    static final int FULL = SEVERITY_STEPS;
+    private static final double[][][][] SEVERITY_MATRICES = severityMatrices();
+
+    private static double[][][][] severityMatrices() {
+        double[][][][] all = new double[4][][][];
+        for (int type = 1; type <= 3; type++) {
+            all[type] = new double[FULL + 1][3][3];
+            for (int level = 0; level <= FULL; level++) {
+                double s = severity(level);
+                for (int i = 0; i < 3; i++) {
+                    for (int j = 0; j < 3; j++) {
+                        all[type][level][i][j] = (i == j ? 1 - s : 0) + s * MATRICES[type][i][j];
+                    }
+                }
+            }
+        }
+        return all;
+    }
+
+    // Nearest level for a severity in [0, 1].
+    static int severityLevel(double severity) {
+        return (int) Math.round(Math.max(0, Math.min(1, severity)) * SEVERITY_STEPS);
+    }
+
+    // "0.6" -> its level; blank means full severity, anything else invalid gives -1.
+    static int parseSeverity(String text) {
+        if (text == null || text.isBlank()) return FULL;
+        try {
+            double s = Double.parseDouble(text.trim());
+            return (s >= 0 && s <= 1) ? severityLevel(s) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static double severity(int level) {
+        return (double) level / SEVERITY_STEPS;
+    }
+
+    // Whether the fixed full-severity math applies (grayscale has no severity).
+    static boolean isFull(int type, int level) {
+        return type == 4 || level >= FULL;
+    }
+
+    // Linear-light mode: channels are decoded from sRGB through a 256-entry
+    // table, the matrices apply to linear values, and results are encoded back
+    // through a table indexed by the linear value quantized to 1/4095 (within
+    // one 8-bit step of the exact curve), so no Math.pow per pixel. Grayscale
+    // then uses Rec. 709 luminance weights instead of the plain average.
+    //   -Dcoloraid.linear=true  make it the default for the menu, batch and server
+    static final boolean LINEAR = Boolean.getBoolean("coloraid.linear");
+    private static final int ENCODE_STEPS = 4095;
+    private static final double[] TO_LINEAR = new double[256];
+    private static final int[] TO_SRGB = new int[ENCODE_STEPS + 1];
+    // Rec. 709 luminance terms in encode-table units, 10 fractional bits
+    private static final int[] LUMA_R = new int[256], LUMA_G = new int[256], LUMA_B = new int[256];
+
+    static {
+        for (int c = 0; c < 256; c++) {
+            double v = c / 255.0;
+            TO_LINEAR[c] = (v <= 0.04045) ? v / 12.92 : Math.pow((v + 0.055) / 1.055, 2.4);
+        }
+        for (int i = 0; i <= ENCODE_STEPS; i++) {
+            double v = (double) i / ENCODE_STEPS;
+            double e = (v <= 0.0031308) ? v * 12.92 : 1.055 * Math.pow(v, 1 / 2.4) - 0.055;
+            TO_SRGB[i] = clamp((int) Math.round(e * 255));
+        }
+        for (int c = 0; c < 256; c++) {
+            LUMA_R[c] = (int) Math.round(0.2126 * TO_LINEAR[c] * ENCODE_STEPS * 1024);
+            LUMA_G[c] = (int) Math.round(0.7152 * TO_LINEAR[c] * ENCODE_STEPS * 1024);
+            LUMA_B[c] = (int) Math.round(0.0722 * TO_LINEAR[c] * ENCODE_STEPS * 1024);
+        }
+    }
+
+    static double toLinear(int c) {
+        return TO_LINEAR[c];
+    }
+
+    // 8-bit sRGB for a linear value, clamped to [0, 1].
+    static int toSrgb(double v) {
+        return TO_SRGB[Math.max(0, Math.min(ENCODE_STEPS, (int) (v * ENCODE_STEPS + 0.5)))];
+    }
+
+    // SIMD implementation, see VectorKernels.
+    interface SimdKernel {
+        String describe();
+        void simulate(int[] src, int srcPos, int[] dst, int dstPos, int len, int type);
+        void daltonize(int[] orig, int origPos, int[] sim, int simPos, int[] dst, int dstPos, int len, int type);
+    }
+
+    // -Dcoloraid.kernel selects the pixel math:
+    //   lut    - cached ColorLut tables (default)
+    //   vector - jdk.incubator.vector SIMD (vector/VectorKernels.java, built
+    //            separately), scalar if the module or the class isn't there
+    //   direct - the scalar per-pixel arithmetic
+    static final String KERNEL = System.getProperty("coloraid.kernel", "lut").toLowerCase();
+    static final boolean USE_LUT = KERNEL.equals("lut");
+    static final SimdKernel SIMD = KERNEL.equals("vector") ? loadSimd() : null;
+
+    private static SimdKernel loadSimd() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            System.out.println("Vector API not available (start with --add-modules jdk.incubator.vector); using scalar kernels.");
+            return null;
+        }
+        try {
+            // loaded by name: it lives in vector/ and is only built with the incubator module
+            return (SimdKernel) Class.forName("VectorKernels").getDeclaredConstructor().newInstance();
+        } catch (Throwable e) {
+            System.out.println("Vector kernels unavailable (" + e + "); using scalar kernels.");
+            return null;
+        }
+    }
+
+    // Returns an image whose raster is a plain packed int[] of width*height
+    // pixels. INT_RGB and INT_ARGB images are returned as-is; anything else
+    // (JPEG 3BYTE_BGR, PNG 4BYTE_ABGR, indexed, ...) is converted once.
+    static BufferedImage toIntRGB(BufferedImage src) {
+        if (isPackedInt(src)) return src;
+
+        int w = src.getWidth(), h = src.getHeight();
+        boolean alpha = src.getColorModel().hasAlpha();
+        BufferedImage out = new BufferedImage(w, h, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        toIntRGB(src, pixels(out));
+        return out;
+    }
+
+    // Same conversion into the first width*height entries of a caller's
+    // array, so a reused buffer can stand in for a new image.
+    static void toIntRGB(BufferedImage src, int[] dst) {
+        int w = src.getWidth(), h = src.getHeight();
+        Raster raster = src.getRaster();
+        if (isPackedBytes(src, BufferedImage.TYPE_3BYTE_BGR, 3)) {
+            byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+            TileEngine.run(h, (y0, y1) -> {
+                for (int i = y0 * w, j = i * 3, end = y1 * w; i < end; i++, j += 3) {
+                    dst[i] = ((data[j + 2] & 0xFF) << 16) | ((data[j + 1] & 0xFF) << 8) | (data[j] & 0xFF);
+                }
+            });
+        } else if (isPackedBytes(src, BufferedImage.TYPE_4BYTE_ABGR, 4)) {
+            byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+            TileEngine.run(h, (y0, y1) -> {
+                for (int i = y0 * w, j = i * 4, end = y1 * w; i < end; i++, j += 4) {
+                    dst[i] = ((data[j] & 0xFF) << 24) | ((data[j + 3] & 0xFF) << 16)
+                            | ((data[j + 2] & 0xFF) << 8) | (data[j + 1] & 0xFF);
+                }
+            });
+        } else {
+            TileEngine.run(h, (y0, y1) -> src.getRGB(0, y0, w, y1 - y0, dst, y0 * w, w));
+        }
+    }
+
+    // A byte image of the given type whose rows are tightly packed from the
+    // start of its array, as the byte loops in toIntRGB index it; a subimage
+    // keeps its parent's type but not that layout.
+    private static boolean isPackedBytes(BufferedImage img, int type, int bytesPerPixel) {
+        if (img.getType() != type) return false;
+        Raster raster = img.getRaster();
+        int[] offsets = (bytesPerPixel == 3) ? new int[] {2, 1, 0} : new int[] {3, 2, 1, 0};
+        return raster.getDataBuffer() instanceof DataBufferByte
+                && raster.getSampleModel() instanceof PixelInterleavedSampleModel sm
+                && sm.getPixelStride() == bytesPerPixel
+                && sm.getScanlineStride() == img.getWidth() * bytesPerPixel
+                && Arrays.equals(sm.getBandOffsets(), offsets)
+                && raster.getMinX() == 0 && raster.getMinY() == 0
+                && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                && raster.getDataBuffer().getOffset() == 0;
+    }
+
+    static boolean isPackedInt(BufferedImage img) {
+        int t = img.getType();
+        if (t != BufferedImage.TYPE_INT_RGB && t != BufferedImage.TYPE_INT_ARGB) return false;
+        Raster raster = img.getRaster();
+        return raster.getSampleModel() instanceof SinglePixelPackedSampleModel sm
+                && sm.getScanlineStride() == img.getWidth()
+                && raster.getMinX() == 0 && raster.getMinY() == 0
+                && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                && raster.getDataBuffer().getOffset() == 0;
+    }
+
+    // Backing array of a packed int image (see isPackedInt).
+    static int[] pixels(BufferedImage img) {
+        return ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+    }
+
+    // The SIMD kernels only carry the full-severity gamma-space matrices, so
+    // other levels and linear mode go through the tables.
+    private static boolean useLut(int type, int level, boolean linear) {
+        return USE_LUT || (SIMD != null && (linear || !isFull(type, level)));
+    }
+
+    // Simulates pixels [from, to) of src into dst.
+    static void simulate(int[] src, int[] dst, int from, int to, int type, int level, boolean linear) {
+        if (useLut(type, level, linear)) {
+            ColorLut.forType(type, level, linear).simulate(src, dst, from, to);
+            return;
+        }
+        if (SIMD != null) {
+            SIMD.simulate(src, from, dst, from, to - from, type);
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            dst[i] = simulatePixel(src[i], type, level, linear);
+        }
+    }
+
+    // Daltonizes pixels [from, to) using the original and its simulation.
+    // The LUT path reads the correction from the tables wherever sim is what
+    // simulate() at this level gives, and computes it from sim elsewhere.
+    // The correction is driven by the simulation error, so its strength
+    // follows the severity: none at 0, today's correction at FULL.
+    static void daltonize(int[] orig, int[] sim, int[] dst, int from, int to, int type, int level,
+                          boolean linear) {
+        if (useLut(type, level, linear) && type != 4) {
+            ColorLut.forType(type, level, linear).correct(orig, sim, dst, from, to);
+            return;
+        }
+        if (SIMD != null) {
+            SIMD.daltonize(orig, from, sim, from, dst, from, to - from, type);
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            dst[i] = daltonizePixel(orig[i], sim[i], type, linear);
+        }
+    }
+
+    // Fused pass over rows [y0, y1): each source pixel is read once and the
+    // simulated pixel goes straight into the right half of the 2w-wide
+    // comparison canvas, the correction into cor (skipped when cor is null).
+    // The left half gets the original only when copyOriginal is set; images
+    // with alpha are drawn there by the caller so compositing stays the same.
+    static void fused(int[] src, int w, int[] side, int[] cor, int y0, int y1, int type, int level,
+                      boolean linear, boolean copyOriginal) {
+        if (useLut(type, level, linear)) {
+            fusedLut(ColorLut.forType(type, level, linear), src, w, side, cor, y0, y1, copyOriginal);
+            return;
+        }
+        if (SIMD != null) {
+            for (int y = y0; y < y1; y++) {
+                int i = y * w, row = y * 2 * w;
+                if (copyOriginal) {
+                    for (int x = 0; x < w; x++) side[row + x] = src[i + x] & 0xFFFFFF;
+                }
+                SIMD.simulate(src, i, side, row + w, w, type);
+                if (cor != null) SIMD.daltonize(src, i, side, row + w, cor, i, w, type);
+            }
+            return;
+        }
+        for (int y = y0; y < y1; y++) {
+            int i = y * w, row = y * 2 * w;
+            for (int x = 0; x < w; x++, i++) {
+                int rgb = src[i];
+                int sim = simulatePixel(rgb, type, level, linear);
+                if (copyOriginal) side[row + x] = rgb & 0xFFFFFF;
+                side[row + w + x] = sim;
+                if (cor != null) cor[i] = daltonizePixel(rgb, sim, type, linear);
+            }
+        }
+    }
+
+    private static void fusedLut(ColorLut lut, int[] src, int w, int[] side, int[] cor, int y0, int y1, boolean copyOriginal) {
+        for (int y = y0; y < y1; y++) {
+            int i = y * w, row = y * 2 * w;
+            for (int x = 0; x < w; x++, i++) {
+                int rgb = src[i];
+                if (copyOriginal) side[row + x] = rgb & 0xFFFFFF;
+                side[row + w + x] = lut.simulate(rgb);
+                if (cor != null) cor[i] = lut.correct(rgb);
+            }
+        }
+    }
+
+    static int simulatePixel(int rgb, int type) {
+        int r = (rgb >> 16) & 0xFF;
+        int g = (rgb >> 8) & 0xFF;
+        int b = rgb & 0xFF;
+
+        double nr = r, ng = g, nb = b;
+
+        switch (type) {
+            case 1 -> { nr = 0.56667*r + 0.43333*g; ng = 0.55833*r + 0.44167*g; nb = 0.24167*g + 0.75833*b; }
+            case 2 -> { nr = 0.625*r + 0.375*g; ng = 0.7*r + 0.3*g; nb = 0.3*g + 0.7*b; }
+            case 3 -> { nr = 0.95*r + 0.05*g; ng = 0.43333*g + 0.56667*b; nb = 0.475*g + 0.525*b; }
+            case 4 -> { int gray = (r+g+b)/3; nr=ng=nb=gray; }
+        }
+        return (clamp((int) nr) << 16) | (clamp((int) ng) << 8) | clamp((int) nb);
+    }
+
+    // simulatePixel at a severity level; FULL is exactly simulatePixel(rgb, type).
+    static int simulatePixel(int rgb, int type, int level) {
+        if (isFull(type, level)) return simulatePixel(rgb, type);
+        double[][] m = SEVERITY_MATRICES[type][level];
+        int r = (rgb >> 16) & 0xFF;
+        int g = (rgb >> 8) & 0xFF;
+        int b = rgb & 0xFF;
+
+        double nr = m[0][0]*r + m[0][1]*g + m[0][2]*b;
+        double ng = m[1][0]*r + m[1][1]*g + m[1][2]*b;
+        double nb = m[2][0]*r + m[2][1]*g + m[2][2]*b;
+        return (clamp((int) nr) << 16) | (clamp((int) ng) << 8) | clamp((int) nb);
+    }
+
+    // simulatePixel in linear light when linear is set.
+    static int simulatePixel(int rgb, int type, int level, boolean linear) {
+        if (!linear) return simulatePixel(rgb, type, level);
+        if (type == 4) {
+            int sum = LUMA_R[(rgb >> 16) & 0xFF] + LUMA_G[(rgb >> 8) & 0xFF] + LUMA_B[rgb & 0xFF];
+            int y = TO_SRGB[Math.min(ENCODE_STEPS, (sum + 512) >> 10)];
+            return (y << 16) | (y << 8) | y;
+        }
+        double r = TO_LINEAR[(rgb >> 16) & 0xFF];
+        double g = TO_LINEAR[(rgb >> 8) & 0xFF];
+        double b = TO_LINEAR[rgb & 0xFF];
+
+        double[][] m = SEVERITY_MATRICES[type][Math.min(level, FULL)];
+        double nr = m[0][0]*r + m[0][1]*g + m[0][2]*b;
+        double ng = m[1][0]*r + m[1][1]*g + m[1][2]*b;
+        double nb = m[2][0]*r + m[2][1]*g + m[2][2]*b;
+        return (toSrgb(nr) << 16) | (toSrgb(ng) << 8) | toSrgb(nb);
+    }
+
+    // daltonizePixel with the error taken and redistributed in linear light.
+    static int daltonizePixel(int oRGB, int sRGB, int type, boolean linear) {
+        // grayscale has no correction, and every 8-bit value survives the round trip
+        if (!linear || type == 4) return daltonizePixel(oRGB, sRGB, type);
+        double r = TO_LINEAR[(oRGB >> 16) & 0xFF];
+        double g = TO_LINEAR[(oRGB >> 8) & 0xFF];
+        double b = TO_LINEAR[oRGB & 0xFF];
+
+        double dr = r - TO_LINEAR[(sRGB >> 16) & 0xFF];
+        double dg = g - TO_LINEAR[(sRGB >> 8) & 0xFF];
+        double db = b - TO_LINEAR[sRGB & 0xFF];
+
+        double nr=r, ng=g, nb=b;
+
+        switch(type){
+            case 1 -> { ng=g+3*dr; nb=b+dr; }
+            case 2 -> { nr=r+3*dg; nb=b+dg; }
+            case 3 -> { nr=r+db; ng=g+db; }
+        }
+
+        return (toSrgb(nr) << 16) | (toSrgb(ng) << 8) | toSrgb(nb);
+    }
+
+    static int daltonizePixel(int oRGB, int sRGB, int type) {
+        int r = (oRGB >> 16) & 0xFF;
+        int g = (oRGB >> 8) & 0xFF;
+        int b = oRGB & 0xFF;
+
+        int dr = r - ((sRGB >> 16) & 0xFF);
+        int dg = g - ((sRGB >> 8) & 0xFF);
+        int db = b - (sRGB & 0xFF);
+
+        double nr=r, ng=g, nb=b;
+
+        switch(type){
+            case 1 -> { nr=r; ng=g+3*dr; nb=b+1*dr; }
+            case 2 -> { nr=r+3*dg; ng=g; nb=b+1*dg; }
+            case 3 -> { nr=r+1*db; ng=g+1*db; nb=b; }
+        }
+
+        return (clamp((int) nr) << 16) | (clamp((int) ng) << 8) | clamp((int) nb);
+    }
+
+    static int clamp(int val) {
+        return Math.max(0, Math.min(255, val));
+    }
+}
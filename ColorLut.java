@@ -0,0 +1,173 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Lookup tables for the simulate/daltonize math, one set per deficiency type.
+//
+// Every simulated channel of types 1-3 depends on just two input channels:
+// red and green come from (r, g) and blue from (g, b) for protan/deutan; for
+// tritan red comes from (r, g) and green/blue from (g, b). So two 64K tables
+// indexed by the packed r<<8|g and g<<8|b bytes of the pixel hold the exact
+// result, and a pixel becomes two loads and an OR. The daltonize error is
+// likewise a function of one of those pairs. Tables are built from the
+// scalar code in ColorKernels, so results are bit-identical; verify() checks
+// that over all 2^24 colors.
+//
+// Mixing a matrix with the identity keeps those channel dependencies, so a
+// partial severity gets the same two-table layout. Full-severity tables stay
+// for the life of the process; partial ones (about 1 MB each) live in an LRU
+// cache, so sweeping severities builds each level's tables once.
+//   -Dcoloraid.lut.cacheSize=N  partial-severity tables kept (default 32)
+//
+// Linear-light decoding is per channel, so that mode keys the same way; its
+// daltonize error is kept as a linear value and encoded after the add. Its
+// grayscale weighs all three channels and is left to the scalar code, which
+// is three table loads already.
+final class ColorLut {
+
+    private static final ColorLut[] CACHE = new ColorLut[10]; // type, +5 in linear mode
+    static final int CACHE_SIZE = Math.max(1, Integer.getInteger("coloraid.lut.cacheSize", 32));
+    private static final Map<Integer, ColorLut> PARTIAL = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, ColorLut> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private final int type;
+    private final int level;
+    private final boolean linear;
+    private final int[] simRG = new int[65536];   // simulated channels that depend on (r, g), shifted into place
+    private final int[] simGB = new int[65536];   // simulated channels that depend on (g, b)
+    private final int[] gray = new int[766];      // type 4: packed gray for r+g+b
+    private final boolean corByGB;                // tritan corrections are keyed by (g, b) instead of (r, g)
+    private final int[] cor = new int[65536];     // corrected channels fully determined by the key pair
+    private final int[] err;                      // error added to the remaining channel
+    private final double[] errLinear;             // the same in linear light
+
+    static ColorLut forType(int type, int level, boolean linear) {
+        int slot = linear ? type + 5 : type;
+        if (ColorKernels.isFull(type, level)) {
+            ColorLut lut = CACHE[slot];
+            if (lut == null) {
+                synchronized (CACHE) {
+                    lut = CACHE[slot];
+                    if (lut == null) {
+                        lut = build(type, ColorKernels.FULL, linear);
+                        CACHE[slot] = lut;
+                    }
+                }
+            }
+            return lut;
+        }
+        // built under the lock so concurrent bands never build the same level twice
+        synchronized (PARTIAL) {
+            return PARTIAL.computeIfAbsent(slot * (ColorKernels.FULL + 1) + level, k -> build(type, level, linear));
+        }
+    }
+
+    private static ColorLut build(int type, int level, boolean linear) {
+        ColorLut lut = new ColorLut(type, level, linear);
+        if (Boolean.getBoolean("coloraid.lut.verify")) {
+            System.out.println("LUT type " + type + " level " + level + (linear ? " linear" : "")
+                    + " mismatches: " + lut.verify());
+        }
+        return lut;
+    }
+
+    private ColorLut(int type, int level, boolean linear) {
+        this.type = type;
+        this.level = level;
+        this.linear = linear;
+        this.corByGB = (type == 3);
+        this.err = linear ? null : new int[65536];
+        this.errLinear = linear ? new double[65536] : null;
+        if (type == 4) {
+            for (int sum = 0; sum < gray.length; sum++) {
+                int g = ColorKernels.clamp(sum / 3);
+                gray[sum] = (g << 16) | (g << 8) | g;
+            }
+            return;
+        }
+
+        int rgMask = (type == 3) ? 0xFF0000 : 0xFFFF00;
+        for (int hi = 0; hi < 256; hi++) {
+            for (int lo = 0; lo < 256; lo++) {
+                int key = (hi << 8) | lo;
+                // (r, g) with b = 0, and (g, b) with r = 0
+                int simA = ColorKernels.simulatePixel((hi << 16) | (lo << 8), type, level, linear);
+                int simB = ColorKernels.simulatePixel((hi << 8) | lo, type, level, linear);
+                simRG[key] = simA & rgMask;
+                simGB[key] = simB & ~rgMask & 0xFFFFFF;
+            }
+        }
+
+        for (int hi = 0; hi < 256; hi++) {
+            for (int lo = 0; lo < 256; lo++) {
+                int key = (hi << 8) | lo;
+                if (corByGB) {
+                    // db = b - simB(g, b); g and b of the correction depend on (g, b) only
+                    int rgb = (hi << 8) | lo;
+                    int sim = simulate(rgb);
+                    if (linear) errLinear[key] = ColorKernels.toLinear(lo) - ColorKernels.toLinear(sim & 0xFF);
+                    else err[key] = lo - (sim & 0xFF);
+                    cor[key] = ColorKernels.daltonizePixel(rgb, sim, type, linear) & 0x00FFFF;
+                } else {
+                    // protan: dr = r - simR(r, g); deutan: dg = g - simG(r, g)
+                    int rgb = (hi << 16) | (lo << 8);
+                    int sim = simulate(rgb);
+                    int c = (type == 1) ? hi : lo, simC = (type == 1) ? (sim >> 16) & 0xFF : (sim >> 8) & 0xFF;
+                    if (linear) errLinear[key] = ColorKernels.toLinear(c) - ColorKernels.toLinear(simC);
+                    else err[key] = c - simC;
+                    cor[key] = ColorKernels.daltonizePixel(rgb, sim, type, linear) & 0xFFFF00;
+                }
+            }
+        }
+    }
+
+    int simulate(int rgb) {
+        if (type == 4) {
+            if (linear) return ColorKernels.simulatePixel(rgb, 4, level, true);
+            return gray[((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF)];
+        }
+        return simRG[(rgb >> 8) & 0xFFFF] | simGB[rgb & 0xFFFF];
+    }
+
+    // Same result as ColorKernels.daltonizePixel(rgb, simulate(rgb), type, linear).
+    int correct(int rgb) {
+        if (corByGB) {
+            int key = rgb & 0xFFFF, r = (rgb >> 16) & 0xFF;
+            if (linear) return cor[key] | (ColorKernels.toSrgb(ColorKernels.toLinear(r) + errLinear[key]) << 16);
+            return cor[key] | (ColorKernels.clamp(r + err[key]) << 16);
+        }
+        int key = (rgb >> 8) & 0xFFFF, b = rgb & 0xFF;
+        if (linear) return cor[key] | ColorKernels.toSrgb(ColorKernels.toLinear(b) + errLinear[key]);
+        return cor[key] | ColorKernels.clamp(b + err[key]);
+    }
+
+    void simulate(int[] src, int[] dst, int from, int to) {
+        for (int i = from; i < to; i++) {
+            dst[i] = simulate(src[i]);
+        }
+    }
+
+    // Corrects src against the given simulation. Pixels whose sim is not
+    // what simulate() gives (a caller's own or edited simulation) take the
+    // scalar path, so the result always follows sim.
+    void correct(int[] src, int[] sim, int[] dst, int from, int to) {
+        for (int i = from; i < to; i++) {
+            int rgb = src[i], s = sim[i] & 0xFFFFFF;
+            dst[i] = (simulate(rgb) == s) ? correct(rgb) : ColorKernels.daltonizePixel(rgb, s, type, linear);
+        }
+    }
+
+    // Number of 24-bit colors where the tables disagree with the scalar math.
+    long verify() {
+        long bad = 0;
+        for (int rgb = 0; rgb < 0x1000000; rgb++) {
+            int sim = ColorKernels.simulatePixel(rgb, type, level, linear);
+            if (simulate(rgb) != sim) bad++;
+            else if (type != 4 && correct(rgb) != ColorKernels.daltonizePixel(rgb, sim, type, linear)) bad++;
+        }
+        return bad;
+    }
+}
@@ -0,0 +1,97 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// One color vision test in progress: the plate being shown, the answers so
+// far and the wrong answers per deficiency. No Swing in here, so the test
+// window, a kiosk or a web front end can all drive the same scoring. An
+// instance belongs to one Session and is used from one thread at a time.
+class ColorTest {
+
+    // {plate image, expected answer, deficiency the plate screens for}
+    static final String[][] PLATES = {
+        {"plate1.png",  "12", "normal"},
+        {"plate2.jpg",  "8",  "protanopia"},
+        {"plate3.jpg",  "6",  "deuteranopia"},
+        {"plate4.jpg",  "29", "protanopia"},
+        {"plate5.jpg",  "5",  "deuteranopia"},
+        {"plate6.png",  "45", "protanopia"},
+        {"plate7.jpg",  "74", "deuteranopia"},
+        {"plate8.jpg",  "26", "protanopia"},
+        {"plate9.jpg",  "57", "deuteranopia"},
+        {"plate10.png", "97", "protanopia"},
+        {"plate11.png", "73", "deuteranopia"},
+        {"plate12.png", "16", "normal"},
+        {"plate13.png", "7",  "protanopia"},
+        {"plate14.png", "3",  "deuteranopia"},
+        {"plate15.jpg", "35", "protanopia"},
+        {"plate16.png", "23", "tritanopia"},
+        {"plate17.png", "12", "tritanopia"},
+        {"plate18.png", "26", "tritanopia"}
+    };
+
+    private final String[] answers = new String[PLATES.length]; // null = skipped
+    private int index;
+    private int protanopia, deuteranopia, tritanopia, skipped;
+
+    static String[] platePaths() {
+        String[] paths = new String[PLATES.length];
+        for (int i = 0; i < PLATES.length; i++) paths[i] = PLATES[i][0];
+        return paths;
+    }
+
+    int plateCount() {
+        return PLATES.length;
+    }
+
+    // Index of the plate waiting for an answer; plateCount() once finished.
+    int index() {
+        return index;
+    }
+
+    String platePath() {
+        return PLATES[index][0];
+    }
+
+    boolean isFinished() {
+        return index >= PLATES.length;
+    }
+
+    // Records the answer to the current plate (blank = skipped) and moves on.
+    void answer(String text) {
+        if (isFinished()) throw new IllegalStateException("Test already finished");
+        String ans = (text == null) ? "" : text.trim();
+        String[] plate = PLATES[index];
+
+        answers[index] = ans.isEmpty() ? null : ans;
+        if (ans.isEmpty()) {
+            skipped++;
+        } else if (!ans.equalsIgnoreCase(plate[1])) {
+            // only wrong (non-skipped) answers count
+            switch (plate[2]) {
+                case "protanopia": protanopia++; break;
+                case "deuteranopia": deuteranopia++; break;
+                case "tritanopia": tritanopia++; break;
+            }
+        }
+        index++;
+    }
+
+    int protanopiaErrors() { return protanopia; }
+    int deuteranopiaErrors() { return deuteranopia; }
+    int tritanopiaErrors() { return tritanopia; }
+    int skipped() { return skipped; }
+
+    String result() {
+        if (skipped >= PLATES.length / 2) return "Test Incomplete (Too Many Skipped Answers)";
+        if (protanopia >= 4) return "Possible Protanopia (Red Color Blindness)";
+        if (deuteranopia >= 4) return "Possible Deuteranopia (Green Color Blindness)";
+        if (tritanopia >= 2) return "Possible Tritanopia (Blue Color Blindness)";
+        return "Normal Color Vision";
+    }
+
+    // Answers given so far in plate order, null for a skipped plate.
+    List<String> answers() {
+        return new ArrayList<>(Arrays.asList(answers).subList(0, index));
+    }
+}
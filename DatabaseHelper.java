@@ -2,26 +2,49 @@ import java.sql.*;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.ZoneId;
+import java.util.List;
 
 public class DatabaseHelper {
     private static final String DB_URL = "jdbc:sqlite:C:/ColorAidClean/colorAid.db";
+    private static final DateTimeFormatter INPUT_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter DISPLAY_FORMAT = DateTimeFormatter.ofPattern("dd MMM yyyy, hh:mm a");
+    private static volatile boolean tablesReady;
+
+    // The pool for DB_URL, with the app's schema (test_answers, the summary
+    // triggers) created on first use so saves here stay in the statistics.
+    private static DbPool db() {
+        DbPool db = DbPool.forUrl(DB_URL);
+        if (!tablesReady) {
+            ColorAidApp.createTables(db);
+            tablesReady = true;
+        }
+        return db;
+    }
 
     public static void saveResult(String username, String answers, String result) {
         String insertSQL = "INSERT INTO test_results(username, test_date, answers, result) VALUES (?, ?, ?, ?)";
         
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             PreparedStatement pstmt = conn.prepareStatement(insertSQL)) {
-
-            
+        try {
             LocalDateTime now = LocalDateTime.now(ZoneId.of("Asia/Kolkata"));
-            String formattedTime = now.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+            String formattedTime = now.format(INPUT_FORMAT);
 
-            pstmt.setString(1, username);
-            pstmt.setString(2, formattedTime);
-            pstmt.setString(3, answers);
-            pstmt.setString(4, result);
+            db().write(s -> {
+                PreparedStatement pstmt = s.prepare(insertSQL);
+                pstmt.setString(1, username);
+                pstmt.setString(2, formattedTime);
+                pstmt.setString(3, answers);
+                pstmt.setString(4, result);
+                pstmt.executeUpdate();
 
-            pstmt.executeUpdate();
+                // per-plate rows in the same transaction, as ResultWriter does
+                List<String> perPlate = ResultStore.splitAnswers(answers == null ? "" : answers);
+                if (ResultStore.matchesPlates(perPlate, ColorTest.PLATES.length)) {
+                    try (ResultSet rs = s.prepare("SELECT last_insert_rowid()").executeQuery()) {
+                        if (rs.next()) ResultStore.insertAnswers(s, rs.getLong(1), perPlate);
+                    }
+                }
+                return null;
+            });
             System.out.println("✅ Test result saved successfully for user: " + username + " at " + formattedTime);
 
         } catch (SQLException e) {
@@ -32,32 +55,83 @@ public class DatabaseHelper {
 
     public static void showAllResults() {
         String query = "SELECT * FROM test_results ORDER BY id DESC";
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(query)) {
-
-            System.out.println("\n=== All Saved Test Results ===");
-            DateTimeFormatter inputFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-            DateTimeFormatter displayFormat = DateTimeFormatter.ofPattern("dd MMM yyyy, hh:mm a");
-
-            while (rs.next()) {
-                String rawDate = rs.getString("test_date");
-                String formattedDate = "";
-                try {
-                    formattedDate = LocalDateTime.parse(rawDate, inputFormat).format(displayFormat);
-                } catch (Exception e) {
-                    formattedDate = rawDate; 
+        try {
+            db().read(s -> {
+                try (ResultSet rs = s.prepare(query).executeQuery()) {
+
+                    System.out.println("\n=== All Saved Test Results ===");
+
+                    while (rs.next()) {
+                        String rawDate = rs.getString("test_date");
+                        String formattedDate = "";
+                        try {
+                            formattedDate = LocalDateTime.parse(rawDate, INPUT_FORMAT).format(DISPLAY_FORMAT);
+                        } catch (Exception e) {
+                            formattedDate = rawDate; 
+                        }
+
+                        System.out.println("#" + rs.getInt("id") + " | " + formattedDate);
+                        System.out.println(" User: " + rs.getString("username"));
+                        System.out.println(" Answers: " + rs.getString("answers"));
+                        System.out.println(" Result: " + rs.getString("result"));
+                        System.out.println("-----------------------------");
+                    }
                 }
+                return null;
+            });
+
+        } catch (SQLException e) {
+            System.out.println(" Error retrieving results: " + e.getMessage());
+        }
+    }
 
-                System.out.println("#" + rs.getInt("id") + " | " + formattedDate);
-                System.out.println(" User: " + rs.getString("username"));
-                System.out.println(" Answers: " + rs.getString("answers"));
-                System.out.println(" Result: " + rs.getString("result"));
-                System.out.println("-----------------------------");
+    // Per-plate error and skip rates plus the spread of results, computed in
+    // SQL from test_answers (see ResultStore) rather than by splitting answers.
+    public static void showPlateStatistics() {
+        try {
+            DbPool db = db();
+            System.out.println("\n=== Plate Statistics ===");
+            for (ResultStore.PlateStat p : ResultStore.plateStats(db)) {
+                System.out.printf("Plate %2d (%s, expects %s): %d shown, %.1f%% wrong, %.1f%% skipped%n",
+                        p.plate() + 1, p.deficiency(), p.expected(), p.shown(),
+                        p.errorRate() * 100, p.skipRate() * 100);
             }
 
+            System.out.println("\n=== Result Distribution ===");
+            for (ResultStore.ResultCount c : ResultStore.resultDistribution(db)) {
+                System.out.println(" " + c.tests() + " | " + c.result());
+            }
         } catch (SQLException e) {
-            System.out.println(" Error retrieving results: " + e.getMessage());
+            System.out.println(" Error computing statistics: " + e.getMessage());
+        }
+    }
+
+    // Per-user and per-day totals from the summary tables kept by ResultStats,
+    // without reading test_results itself.
+    public static void showSummary() {
+        try {
+            DbPool db = db();
+            System.out.println("\n=== Tests per User ===");
+            for (ResultStats.UserSummary u : ResultStats.byUser(db)) {
+                System.out.println(" " + u.username() + " | " + u.tests() + " test(s), last " + u.lastTest());
+                u.byResult().forEach((result, n) -> System.out.println("    " + n + " x " + result));
+            }
+
+            System.out.println("\n=== Tests per Day ===");
+            for (ResultStats.DaySummary d : ResultStats.byDay(db, "")) {
+                System.out.println(" " + d.day() + " | " + d.tests() + " test(s), last " + d.lastTest());
+                d.byResult().forEach((result, n) -> System.out.println("    " + n + " x " + result));
+            }
+        } catch (SQLException e) {
+            System.out.println(" Error reading summary: " + e.getMessage());
         }
     }
+
+    // Streams results to a CSV or NDJSON file (see ResultExporter); user, from
+    // and to ("yyyy-MM-dd", inclusive) may be null.
+    public static void exportResults(String file, String user, String from, String to) {
+        ResultExporter.Format format = file.endsWith(".ndjson") || file.endsWith(".json")
+                ? ResultExporter.Format.NDJSON : ResultExporter.Format.CSV;
+        ResultExporter.export(db(), file, format, user, from, to);
+    }
 }
@@ -0,0 +1,231 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Long-lived SQLite connections shared by ColorAidApp and DatabaseHelper,
+// one pool per database URL. SQLite allows one writer at a time, so writes go
+// through a single connection behind a lock, each in its own transaction.
+// Reads use a small set of query-only connections. Every connection runs in
+// WAL mode, so readers are not blocked while a result is being written.
+// Prepared statements are cached per connection: callers must not close them,
+// only their ResultSets.
+//
+//   -Dcoloraid.db.readers=N      reader connections per database (default 4)
+//   -Dcoloraid.db.busyTimeout=ms wait for a lock before failing (default 5000)
+class DbPool {
+
+    interface Work<T> {
+        T run(Session s) throws SQLException;
+    }
+
+    // One pooled connection plus its statement cache. Only used by one thread at a time.
+    static final class Session {
+        private final Connection conn;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+        private Session(Connection conn) {
+            this.conn = conn;
+        }
+
+        PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement ps = statements.get(sql);
+            if (ps == null || ps.isClosed()) {
+                ps = conn.prepareStatement(sql);
+                statements.put(sql, ps);
+            }
+            return ps;
+        }
+
+        PreparedStatement prepareWithKeys(String sql) throws SQLException {
+            String key = "keys:" + sql;
+            PreparedStatement ps = statements.get(key);
+            if (ps == null || ps.isClosed()) {
+                ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+                statements.put(key, ps);
+            }
+            return ps;
+        }
+
+        Connection connection() {
+            return conn;
+        }
+
+        private void close() {
+            for (PreparedStatement ps : statements.values()) {
+                try { ps.close(); } catch (Exception ignored) {}
+            }
+            statements.clear();
+            try { conn.close(); } catch (Exception ignored) {}
+        }
+    }
+
+    private static final int READERS = Integer.getInteger("coloraid.db.readers", 4);
+    private static final int BUSY_TIMEOUT_MS = Integer.getInteger("coloraid.db.busyTimeout", 5000);
+    private static final Map<String, DbPool> POOLS = new ConcurrentHashMap<>();
+    private static final List<Runnable> BEFORE_CLOSE = new CopyOnWriteArrayList<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(DbPool::closeAll, "db-pool-close"));
+    }
+
+    private final String url;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private Session writer;                                   // guarded by writeLock
+    private final BlockingQueue<Session> idleReaders = new ArrayBlockingQueue<>(Math.max(1, READERS));
+    private final List<Session> allReaders = new ArrayList<>(); // guarded by this
+    private volatile boolean closed;
+
+    private DbPool(String url) {
+        this.url = url;
+    }
+
+    static DbPool forUrl(String url) {
+        return POOLS.computeIfAbsent(url, DbPool::new);
+    }
+
+    // Runs before the pools close, e.g. to flush queued writes (see ResultWriter).
+    static void beforeClose(Runnable task) {
+        BEFORE_CLOSE.add(task);
+    }
+
+    static void closeAll() {
+        for (Runnable task : BEFORE_CLOSE) {
+            try { task.run(); } catch (RuntimeException ignored) {}
+        }
+        BEFORE_CLOSE.clear();
+        for (DbPool pool : POOLS.values()) pool.close();
+        POOLS.clear();
+    }
+
+    // Runs work on the writer connection inside one transaction, rolled back if it throws.
+    <T> T write(Work<T> work) throws SQLException {
+        long waited = Metrics.start();
+        writeLock.lock();
+        Metrics.DB_WAIT.stop(waited);
+        long t = Metrics.start();
+        try {
+            if (closed) throw new SQLException("Database pool is closed");
+            if (writer == null) {
+                writer = open(false);
+            }
+            Connection conn = writer.conn;
+            conn.setAutoCommit(false);
+            try {
+                T result = work.run(writer);
+                conn.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                try { conn.rollback(); } catch (SQLException ignored) {}
+                discardIfBroken(writer);
+                throw e;
+            } finally {
+                if (writer != null) {
+                    try { conn.setAutoCommit(true); } catch (SQLException ignored) {}
+                }
+            }
+        } finally {
+            writeLock.unlock();
+            Metrics.DB_WRITE.stop(t);
+        }
+    }
+
+    // Runs work on a reader connection. Blocks while all readers are busy.
+    <T> T read(Work<T> work) throws SQLException {
+        long waited = Metrics.start();
+        Session s = borrowReader();
+        Metrics.DB_WAIT.stop(waited);
+        long t = Metrics.start();
+        boolean broken = false;
+        try {
+            return work.run(s);
+        } catch (SQLException | RuntimeException e) {
+            broken = isBroken(s);
+            throw e;
+        } finally {
+            if (broken) {
+                synchronized (this) { allReaders.remove(s); }
+                s.close();
+            } else {
+                idleReaders.offer(s);
+            }
+            Metrics.DB_READ.stop(t);
+        }
+    }
+
+    private Session borrowReader() throws SQLException {
+        if (closed) throw new SQLException("Database pool is closed");
+        Session s = idleReaders.poll();
+        if (s != null) return s;
+        synchronized (this) {
+            if (allReaders.size() < Math.max(1, READERS)) {
+                s = open(true);
+                allReaders.add(s);
+                return s;
+            }
+        }
+        try {
+            return idleReaders.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection");
+        }
+    }
+
+    private Session open(boolean readOnly) throws SQLException {
+        Connection conn = DriverManager.getConnection(url);
+        try (Statement st = conn.createStatement()) {
+            st.execute("PRAGMA journal_mode=WAL");
+            st.execute("PRAGMA synchronous=NORMAL");   // durable across app crashes; WAL fsyncs at checkpoints
+            st.execute("PRAGMA busy_timeout=" + BUSY_TIMEOUT_MS);
+            if (readOnly) st.execute("PRAGMA query_only=ON");
+        } catch (SQLException e) {
+            try { conn.close(); } catch (Exception ignored) {}
+            throw e;
+        }
+        return new Session(conn);
+    }
+
+    private void discardIfBroken(Session s) {
+        if (isBroken(s)) {
+            s.close();
+            writer = null;
+        }
+    }
+
+    private static boolean isBroken(Session s) {
+        try {
+            return s.conn.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    void close() {
+        closed = true;
+        writeLock.lock();
+        try {
+            if (writer != null) {
+                writer.close();
+                writer = null;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        synchronized (this) {
+            for (Session s : allReaders) s.close();
+            allReaders.clear();
+        }
+        idleReaders.clear();
+    }
+}
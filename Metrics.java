@@ -0,0 +1,242 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+// Per-stage latency timers for the image pipeline, plate loading and the
+// database. Off by default: start() then returns 0 and stop() returns at
+// once, and both fold away once ENABLED (a static final) is known false.
+// When on, each timer keeps LongAdder counters plus a log-linear histogram
+// (four buckets per power of two, so percentiles are within ~25%) and is
+// registered as an MBean under "coloraid:type=Timer,name=...".
+//
+//   -Dcoloraid.metrics=true          turn the timers on
+//   -Dcoloraid.metrics.reportSec=N   also print a text report every N seconds
+//
+//   long t = Metrics.start();
+//   ...work...
+//   Metrics.DECODE.stop(t);
+final class Metrics {
+
+    static final boolean ENABLED = Boolean.getBoolean("coloraid.metrics");
+    private static final long REPORT_SEC = Long.getLong("coloraid.metrics.reportSec", 0);
+
+    private static final List<Timer> TIMERS = Collections.synchronizedList(new ArrayList<>());
+
+    static final Timer DECODE = new Timer("decode");
+    static final Timer SIMULATE = new Timer("simulate");
+    static final Timer DALTONIZE = new Timer("daltonize");
+    static final Timer COMPOSE = new Timer("compose");
+    static final Timer FUSED = new Timer("fused");         // simulate + daltonize + compose in one pass
+    static final Timer ENCODE = new Timer("encode");
+    static final Timer PLATE_LOAD = new Timer("plateLoad");
+    static final Timer DB_READ = new Timer("dbRead");
+    static final Timer DB_WRITE = new Timer("dbWrite");
+    static final Timer DB_WAIT = new Timer("dbWait");      // waiting for the writer lock or a reader
+    // One per database operation, from the call to its result; the db* timers
+    // above split the same time by pool phase across all operations.
+    static final Timer RESULT_FLUSH = new Timer("resultFlush");    // one ResultWriter insert batch
+    static final Timer RESULT_UNDO = new Timer("resultUndo");
+    static final Timer HISTORY_PAGE = new Timer("historyPage");
+    static final Timer PLATE_STATS = new Timer("plateStats");
+    static final Timer RESULT_COUNTS = new Timer("resultCounts");
+    static final Timer USER_STATS = new Timer("userStats");
+    static final Timer DAY_STATS = new Timer("dayStats");
+
+    static {
+        if (ENABLED) {
+            for (Timer t : TIMERS) t.register();
+            if (REPORT_SEC > 0) {
+                ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread th = new Thread(r, "metrics-report");
+                    th.setDaemon(true);
+                    return th;
+                });
+                reporter.scheduleAtFixedRate(() -> System.out.print(report()), REPORT_SEC, REPORT_SEC, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    private Metrics() {}
+
+    // Start time for a Timer.stop(), or 0 when metrics are off.
+    static long start() {
+        return ENABLED ? System.nanoTime() : 0L;
+    }
+
+    // One line per timer that has seen any events.
+    static String report() {
+        StringBuilder sb = new StringBuilder("--- ColorAid metrics ---\n");
+        synchronized (TIMERS) {
+            for (Timer t : TIMERS) {
+                long n = t.count.sum();
+                if (n == 0) continue;
+                sb.append(String.format(Locale.ROOT,
+                        "%-12s n=%-8d mean=%9.3f ms  p50=%9.3f  p95=%9.3f  p99=%9.3f  max=%9.3f ms%n",
+                        t.name, n, t.meanMillis(), t.percentileMillis(0.50), t.percentileMillis(0.95),
+                        t.percentileMillis(0.99), t.max.get() / 1e6));
+            }
+        }
+        return sb.toString();
+    }
+
+    static final class Timer implements DynamicMBean {
+        private static final int BUCKETS = 64 * 4;
+        private static final String[] ATTRIBUTES =
+                {"Count", "TotalMillis", "MeanMillis", "MaxMillis", "P50Millis", "P95Millis", "P99Millis"};
+
+        private final String name;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        private Timer(String name) {
+            this.name = name;
+            TIMERS.add(this);
+        }
+
+        // Records the time since start (from Metrics.start()).
+        void stop(long start) {
+            if (!ENABLED || start == 0) return;
+            record(System.nanoTime() - start);
+        }
+
+        void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+            count.increment();
+            totalNanos.add(nanos);
+            max.accumulate(nanos);
+            buckets.incrementAndGet(bucket(nanos));
+        }
+
+        void reset() {
+            count.reset();
+            totalNanos.reset();
+            max.reset();
+            for (int i = 0; i < BUCKETS; i++) buckets.set(i, 0);
+        }
+
+        // Values below 4 get their own bucket; above that, the top bit picks
+        // the octave and the next two bits one of four sub-buckets.
+        private static int bucket(long v) {
+            if (v < 4) return (int) v;
+            int msb = 63 - Long.numberOfLeadingZeros(v);
+            int sub = (int) (v >>> (msb - 2)) & 3;
+            return (msb << 2) | sub;
+        }
+
+        private static long upperBound(int bucket) {
+            if (bucket < 4) return bucket;
+            int msb = bucket >>> 2, sub = bucket & 3;
+            return ((4L + sub + 1) << (msb - 2)) - 1;
+        }
+
+        double meanMillis() {
+            long n = count.sum();
+            return n == 0 ? 0 : totalNanos.sum() / 1e6 / n;
+        }
+
+        double percentileMillis(double p) {
+            long n = 0;
+            long[] snapshot = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) n += (snapshot[i] = buckets.get(i));
+            if (n == 0) return 0;
+            long rank = (long) Math.ceil(p * n), seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) return Math.min(upperBound(i), max.get()) / 1e6;
+            }
+            return max.get() / 1e6;
+        }
+
+        private void register() {
+            try {
+                ManagementFactory.getPlatformMBeanServer()
+                        .registerMBean(this, new ObjectName("coloraid:type=Timer,name=" + name));
+            } catch (JMException e) {
+                System.out.println("Could not register metrics MBean " + name + ": " + e.getMessage());
+            }
+        }
+
+        // ---- DynamicMBean: read-only attributes plus a reset operation ----
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            switch (attribute) {
+                case "Count": return count.sum();
+                case "TotalMillis": return totalNanos.sum() / 1e6;
+                case "MeanMillis": return meanMillis();
+                case "MaxMillis": return max.get() / 1e6;
+                case "P50Millis": return percentileMillis(0.50);
+                case "P95Millis": return percentileMillis(0.95);
+                case "P99Millis": return percentileMillis(0.99);
+                default: throw new AttributeNotFoundException(attribute);
+            }
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String a : attributes) {
+                try {
+                    list.add(new Attribute(a, getAttribute(a)));
+                } catch (AttributeNotFoundException ignored) {
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String action, Object[] params, String[] signature)
+                throws MBeanException, ReflectionException {
+            if ("reset".equals(action)) {
+                reset();
+                return null;
+            }
+            throw new ReflectionException(new NoSuchMethodException(action), "No operation " + action);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            MBeanAttributeInfo[] attrs = new MBeanAttributeInfo[ATTRIBUTES.length];
+            for (int i = 0; i < ATTRIBUTES.length; i++) {
+                String type = i == 0 ? "long" : "double";
+                attrs[i] = new MBeanAttributeInfo(ATTRIBUTES[i], type, ATTRIBUTES[i], true, false, false);
+            }
+            MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Clear all counts",
+                    new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+            return new MBeanInfo(Timer.class.getName(), "ColorAid " + name + " latency",
+                    attrs, null, new MBeanOperationInfo[] {reset}, null);
+        }
+    }
+}
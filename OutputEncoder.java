@@ -0,0 +1,136 @@
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+// Writes the simulated / corrected / comparison images with a selectable codec:
+//
+//   -Dcoloraid.output.format=png|jpg|ppm|raw   (default png)
+//   -Dcoloraid.output.level=0..9               PNG deflate level (default 4, same as ImageIO; 1 is much faster)
+//   -Dcoloraid.output.quality=0.0..1.0         JPEG quality (default 0.9)
+//
+// ppm is uncompressed binary P6; raw is the same RGB bytes without a header.
+// writeAll encodes several images at the same time.
+class OutputEncoder {
+
+    static final String FORMAT = System.getProperty("coloraid.output.format", "png").toLowerCase();
+    static final int PNG_LEVEL = Math.max(0, Math.min(9, Integer.getInteger("coloraid.output.level", 4)));
+    static final float JPEG_QUALITY = Float.parseFloat(System.getProperty("coloraid.output.quality", "0.9"));
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(
+            Math.max(3, Runtime.getRuntime().availableProcessors() / 2), r -> {
+                Thread t = new Thread(r, "encoder-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+
+    // File extension for the configured format, including the dot.
+    static String extension() {
+        return switch (FORMAT) {
+            case "jpg", "jpeg" -> ".jpg";
+            case "ppm" -> ".ppm";
+            case "raw" -> ".rgb";
+            default -> ".png";
+        };
+    }
+
+    // PNG deflate level for writers that do their own encoding (see PngStripWriter).
+    static int pngLevel() {
+        return PNG_LEVEL;
+    }
+
+    // Encodes images[i] to files[i] concurrently and waits for all of them.
+    static void writeAll(BufferedImage[] images, File[] files) throws IOException {
+        CompletableFuture<?>[] jobs = new CompletableFuture<?>[images.length];
+        for (int i = 0; i < images.length; i++) {
+            BufferedImage image = images[i];
+            File file = files[i];
+            jobs[i] = CompletableFuture.runAsync(() -> {
+                try {
+                    write(image, file);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, POOL);
+        }
+        try {
+            CompletableFuture.allOf(jobs).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) throw io;
+            throw new IOException(cause);
+        }
+    }
+
+    static void write(BufferedImage image, File file) throws IOException {
+        long t = Metrics.start();
+        switch (FORMAT) {
+            case "jpg", "jpeg" -> writeImageIO(image, file, "jpeg", JPEG_QUALITY);
+            case "ppm" -> writeRaw(image, file, true);
+            case "raw" -> writeRaw(image, file, false);
+            default -> writeImageIO(image, file, "png", pngQuality(PNG_LEVEL));
+        }
+        Metrics.ENCODE.stop(t);
+    }
+
+    // ImageIO's PNG writer takes deflate level (int) (9 * (1 - q)), which
+    // truncates; aiming at the middle of level's interval lands on it exactly,
+    // so these files match PngStripWriter's at the same level.
+    static float pngQuality(int level) {
+        return Math.max(0f, 1f - (level + 0.5f) / 9f);
+    }
+
+    private static void writeImageIO(BufferedImage image, File file, String format, float quality) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext()) throw new IOException("No " + format + " writer available");
+        ImageWriter writer = writers.next();
+        file.delete(); // ImageIO output streams don't truncate an existing file
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(file)) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(quality);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private static void writeRaw(BufferedImage image, File file, boolean ppmHeader) throws IOException {
+        int w = image.getWidth(), h = image.getHeight();
+        int[] row = new int[w];
+        byte[] bytes = new byte[w * 3];
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            if (ppmHeader) {
+                out.write(("P6\n" + w + " " + h + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+            }
+            for (int y = 0; y < h; y++) {
+                image.getRGB(0, y, w, 1, row, 0, w);
+                for (int x = 0, j = 0; x < w; x++, j += 3) {
+                    int rgb = row[x];
+                    bytes[j] = (byte) (rgb >> 16);
+                    bytes[j + 1] = (byte) (rgb >> 8);
+                    bytes[j + 2] = (byte) rgb;
+                }
+                out.write(bytes);
+            }
+        }
+    }
+}
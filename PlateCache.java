@@ -0,0 +1,124 @@
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.imageio.ImageIO;
+
+// Test plates decoded and scaled to the display size once per process, so
+// moving between plates in runColorBlindnessTest doesn't decode a full-size
+// PNG/JPEG on the EDT. Entries are kept in LRU order and the least recently
+// shown plates are dropped when the total goes over the memory budget
+// (-Dcoloraid.plateCache.mb, default 32).
+//
+// fetch() loads on a single background thread, so at most one full-size
+// decode is in memory at a time; the test window asks for the current plate
+// and prefetches the next PREFETCH plates while the user is answering.
+class PlateCache {
+
+    static final int WIDTH = 560, HEIGHT = 420;
+    // How many plates ahead of the current one to load (-Dcoloraid.plateCache.prefetch).
+    static final int PREFETCH = Integer.getInteger("coloraid.plateCache.prefetch", 2);
+    private static final long BUDGET = Long.getLong("coloraid.plateCache.mb", 32) * 1024 * 1024;
+
+    private static final LinkedHashMap<String, BufferedImage> plates = new LinkedHashMap<>(32, 0.75f, true);
+    private static final Map<String, CompletableFuture<BufferedImage>> pending = new HashMap<>(); // guarded by plates
+    private static long bytes;
+
+    private static final ExecutorService loader = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "plate-loader");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Display-ready plate, or null if the file is missing or not an image.
+    static BufferedImage get(String path) throws IOException {
+        synchronized (plates) {
+            BufferedImage cached = plates.get(path);
+            if (cached != null) return cached;
+        }
+
+        BufferedImage scaled = load(path);
+        if (scaled == null) return null;
+
+        synchronized (plates) {
+            BufferedImage raced = plates.get(path);
+            if (raced != null) return raced;
+            plates.put(path, scaled);
+            bytes += sizeOf(scaled);
+            evict();
+        }
+        return scaled;
+    }
+
+    // Plate from the background loader. Completes immediately on a cache hit;
+    // a load already in flight for the same path is shared.
+    static CompletableFuture<BufferedImage> fetch(String path) {
+        synchronized (plates) {
+            BufferedImage cached = plates.get(path);
+            if (cached != null) return CompletableFuture.completedFuture(cached);
+            CompletableFuture<BufferedImage> inFlight = pending.get(path);
+            if (inFlight != null) return inFlight;
+
+            CompletableFuture<BufferedImage> load = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return get(path);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, loader);
+            pending.put(path, load);
+            load.whenComplete((img, err) -> {
+                synchronized (plates) {
+                    pending.remove(path);
+                }
+            });
+            return load;
+        }
+    }
+
+    // Queues the plates after index so they are ready by the time they are shown.
+    static void prefetch(String[] paths, int index) {
+        for (int i = index + 1; i <= index + PREFETCH && i < paths.length; i++) {
+            fetch(paths[i]);
+        }
+    }
+
+    private static BufferedImage load(String path) throws IOException {
+        long t = Metrics.start();
+        BufferedImage img = ImageIO.read(new File(path));
+        if (img == null) return null;
+
+        // Same SCALE_SMOOTH result as before, rendered once into a plain image
+        // instead of being rescaled lazily every time the icon is painted.
+        Image scaled = img.getScaledInstance(WIDTH, HEIGHT, Image.SCALE_SMOOTH);
+        int type = img.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage out = new BufferedImage(WIDTH, HEIGHT, type);
+        Graphics2D g = out.createGraphics();
+        g.drawImage(scaled, 0, 0, null);
+        g.dispose();
+        Metrics.PLATE_LOAD.stop(t);
+        return out;
+    }
+
+    private static void evict() {
+        Iterator<Map.Entry<String, BufferedImage>> it = plates.entrySet().iterator();
+        // always keep the plate that was just added
+        while (bytes > BUDGET && plates.size() > 1 && it.hasNext()) {
+            bytes -= sizeOf(it.next().getValue());
+            it.remove();
+        }
+    }
+
+    private static long sizeOf(BufferedImage img) {
+        return (long) img.getWidth() * img.getHeight() * 4;
+    }
+}
@@ -0,0 +1,178 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+// Writes an 8-bit RGB PNG a strip of rows at a time, so the full image never
+// has to exist in memory. ImageIO's PNG writer needs the whole RenderedImage
+// up front, which is what the streaming mode is trying to avoid.
+//
+// A file target is written under a temporary name in the same directory and
+// renamed over the real name only once IEND is out, so a failure part way
+// (or an image that never got all its rows) leaves no truncated PNG behind.
+class PngStripWriter implements Closeable {
+
+    private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+    private static final int IDAT_SIZE = 64 * 1024;
+
+    private final DataOutputStream out;
+    private final int width, height;
+    private final Deflater deflater;
+    private final DeflaterOutputStream zip;
+    private final byte[] line;
+    private final Path file, tmp; // null when writing to a caller's stream
+    private int rowsWritten;
+
+    PngStripWriter(File file, int width, int height, int level) throws IOException {
+        this(file.toPath(), tempFor(file.toPath()), width, height, level);
+    }
+
+    private PngStripWriter(Path file, Path tmp, int width, int height, int level) throws IOException {
+        this(Files.newOutputStream(tmp), file, tmp, width, height, level);
+    }
+
+    // Writes to any stream, e.g. an HTTP response body; close() closes it.
+    PngStripWriter(OutputStream target, int width, int height, int level) throws IOException {
+        this(target, null, null, width, height, level);
+    }
+
+    private PngStripWriter(OutputStream target, Path file, Path tmp, int width, int height, int level)
+            throws IOException {
+        this.file = file;
+        this.tmp = tmp;
+        this.width = width;
+        this.height = height;
+        this.out = new DataOutputStream(new BufferedOutputStream(target, IDAT_SIZE));
+        out.write(SIGNATURE);
+
+        ByteBuffer ihdr = ByteBuffer.allocate(13);
+        ihdr.putInt(width).putInt(height);
+        ihdr.put((byte) 8);  // bit depth
+        ihdr.put((byte) 2);  // color type: truecolor
+        ihdr.put((byte) 0);  // deflate
+        ihdr.put((byte) 0);  // adaptive filtering
+        ihdr.put((byte) 0);  // no interlace
+        writeChunk("IHDR", ihdr.array());
+
+        this.deflater = new Deflater(level);
+        this.zip = new DeflaterOutputStream(new IdatStream(), deflater, IDAT_SIZE);
+        this.line = new byte[1 + width * 3];
+    }
+
+    // Appends rows from packed RGB pixels: row r starts at px[offset + r * stride].
+    void writeRows(int[] px, int offset, int stride, int rows) throws IOException {
+        if (rowsWritten + rows > height) {
+            throw new IOException("PNG strip overflow: " + (rowsWritten + rows) + " rows > " + height);
+        }
+        line[0] = 1; // Sub filter: each byte minus the same channel of the pixel to its left
+        for (int r = 0; r < rows; r++) {
+            int p = offset + r * stride;
+            int pr = 0, pg = 0, pb = 0;
+            for (int x = 0, j = 1; x < width; x++, j += 3) {
+                int rgb = px[p + x];
+                int cr = (rgb >> 16) & 0xFF, cg = (rgb >> 8) & 0xFF, cb = rgb & 0xFF;
+                line[j] = (byte) (cr - pr);
+                line[j + 1] = (byte) (cg - pg);
+                line[j + 2] = (byte) (cb - pb);
+                pr = cr; pg = cg; pb = cb;
+            }
+            zip.write(line);
+        }
+        rowsWritten += rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        boolean complete = false;
+        try {
+            if (rowsWritten != height) {
+                throw new IOException("PNG incomplete: " + rowsWritten + " of " + height + " rows written");
+            }
+            zip.finish();
+            zip.flush(); // pushes the last partial IDAT chunk
+            writeChunk("IEND", new byte[0]);
+            out.close();
+            complete = true;
+        } finally {
+            deflater.end();
+            try {
+                out.close();
+            } finally {
+                if (tmp != null && !complete) Files.deleteIfExists(tmp);
+            }
+        }
+        if (tmp != null) {
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                Files.deleteIfExists(tmp);
+                throw e;
+            }
+        }
+    }
+
+    private static Path tempFor(Path file) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        return Files.createTempFile(dir, "." + file.getFileName(), ".part");
+    }
+
+    private void writeChunk(String type, byte[] data) throws IOException {
+        writeChunk(type, data, data.length);
+    }
+
+    private void writeChunk(String type, byte[] data, int len) throws IOException {
+        byte[] tag = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(tag);
+        crc.update(data, 0, len);
+        out.writeInt(len);
+        out.write(tag);
+        out.write(data, 0, len);
+        out.writeInt((int) crc.getValue());
+    }
+
+    // Collects compressed bytes and emits them as IDAT chunks.
+    private final class IdatStream extends OutputStream {
+        private final byte[] buf = new byte[IDAT_SIZE];
+        private int len;
+
+        @Override
+        public void write(int b) throws IOException {
+            buf[len++] = (byte) b;
+            if (len == buf.length) flush();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int n) throws IOException {
+            while (n > 0) {
+                int k = Math.min(n, buf.length - len);
+                System.arraycopy(b, off, buf, len, k);
+                len += k; off += k; n -= k;
+                if (len == buf.length) flush();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (len > 0) {
+                writeChunk("IDAT", buf, len);
+                len = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
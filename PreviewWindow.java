@@ -0,0 +1,442 @@
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GridLayout;
+import java.awt.RenderingHints;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+import javax.swing.BorderFactory;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JSlider;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+
+// Live preview: original, simulated and corrected views side by side with
+// type, severity and linear-light controls. Every control change bumps a
+// generation counter and queues a render on the window's worker thread:
+// first a downsampled copy of the image so something shows at once, then
+// the full image in bands of rows, painted as they finish. A render gives up
+// at the next band once the generation has moved on, so dragging the slider
+// only ever finishes the setting it stops on.
+//
+// The EDT only paints display-size images. A second thread scales the source
+// and the finished rows down to the size the panel shows them at whenever a
+// render progresses, the setting changes or the window is resized; requests
+// that pile up while it works collapse into the latest one.
+//
+// Renders are cached per setting together with the rows finished so far:
+// going back to a setting shows what was done and only renders the rest.
+//
+//   java PreviewWindow <image>   or "Preview Image" in the ColorAidApp menu
+//
+//   -Dcoloraid.preview.size=N     long side of the quick preview (default 480)
+//   -Dcoloraid.preview.cacheMb=N  rendered images kept per window (default 256)
+class PreviewWindow {
+
+    private static final int PREVIEW_SIZE = Integer.getInteger("coloraid.preview.size", 480);
+    private static final long BUDGET = Long.getLong("coloraid.preview.cacheMb", 256) * 1024 * 1024;
+    private static final int BAND_ROWS = 64;
+    private static final long REPAINT_NANOS = 100_000_000L;
+    private static final String[] TYPES = {"Protanopia", "Deuteranopia", "Tritanopia", "Grayscale"};
+
+    // One source at one setting. Rows [0, rowsDone) of sim and cor are final;
+    // cor is null for grayscale, which has no correction.
+    private static final class Render {
+        final BufferedImage sim, cor;
+        volatile int rowsDone;
+
+        Render(int w, int h, boolean correct) {
+            sim = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            cor = correct ? new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB) : null;
+        }
+
+        boolean isDone() {
+            return rowsDone == sim.getHeight();
+        }
+
+        long bytes() {
+            return (long) sim.getWidth() * sim.getHeight() * (cor == null ? 4 : 8);
+        }
+    }
+
+    private final String name;
+    private final BufferedImage source, quick; // quick == source for images already small
+    private final AtomicLong generation = new AtomicLong();
+    private final LinkedHashMap<String, Render> renders = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes; // guarded by renders
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "preview-render");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final ExecutorService scaler = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "preview-scale");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicLong scaleRequests = new AtomicLong();
+    private BufferedImage scaledSource; // scaler thread only: the original at the last display size
+
+    // what is on screen; only touched on the EDT
+    private Render shownQuick, shownFull;
+    private Scaled scaled;
+    private long scaledRequest;
+
+    // The three views at display size, as the panel paints them.
+    private record Scaled(int width, int height, BufferedImage original, BufferedImage sim, BufferedImage cor) {}
+
+    private JFrame frame;
+    private JComboBox<String> typeBox;
+    private JSlider severity;
+    private JCheckBox linear;
+    private JLabel status;
+    private ViewPanel views;
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: java PreviewWindow <image>");
+            return;
+        }
+        open(args[0]).join();
+    }
+
+    // Decodes off the EDT, then shows the window. Completes once it is up
+    // (or with the reason it could not be opened).
+    static CompletableFuture<Void> open(String path) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                BufferedImage img = ImageIO.read(new File(path));
+                if (img == null) throw new IOException("format unsupported");
+                return img;
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }).thenAccept(img -> {
+            PreviewWindow window = new PreviewWindow(new File(path).getName(), img);
+            SwingUtilities.invokeLater(window::show);
+        }).exceptionally(e -> {
+            Throwable cause = (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+            System.out.println("Cannot open " + path + ": " + cause.getMessage());
+            return null;
+        });
+    }
+
+    private PreviewWindow(String name, BufferedImage img) {
+        this.name = name;
+        this.source = ColorKernels.toIntRGB(img);
+        this.quick = downsample(source, PREVIEW_SIZE);
+    }
+
+    private void show() {
+        frame = new JFrame("ColorAid - Preview: " + name);
+        frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        frame.setSize(1200, 520);
+        frame.setLocationRelativeTo(null);
+
+        JPanel controls = new JPanel(new FlowLayout(FlowLayout.CENTER, 16, 8));
+        typeBox = new JComboBox<>(TYPES);
+        severity = new JSlider(0, ColorKernels.FULL, ColorKernels.FULL);
+        severity.setMajorTickSpacing(Math.max(1, ColorKernels.FULL / 10));
+        severity.setPaintTicks(true);
+        severity.setSnapToTicks(true);
+        JLabel severityLabel = new JLabel("Severity 100%");
+        linear = new JCheckBox("Linear light", ColorKernels.LINEAR);
+        controls.add(new JLabel("Type:"));
+        controls.add(typeBox);
+        controls.add(severityLabel);
+        controls.add(severity);
+        controls.add(linear);
+
+        views = new ViewPanel();
+        status = new JLabel(" ", SwingConstants.CENTER);
+        status.setBorder(BorderFactory.createEmptyBorder(4, 4, 6, 4));
+
+        frame.setLayout(new BorderLayout());
+        frame.add(controls, BorderLayout.NORTH);
+        frame.add(views, BorderLayout.CENTER);
+        frame.add(status, BorderLayout.SOUTH);
+        views.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                rescale();
+            }
+        });
+
+        typeBox.addActionListener(e -> {
+            severity.setEnabled(typeBox.getSelectedIndex() != 3);
+            update();
+        });
+        severity.addChangeListener(e -> {
+            severityLabel.setText("Severity " + Math.round(ColorKernels.severity(severity.getValue()) * 100) + "%");
+            update();
+        });
+        linear.addActionListener(e -> update());
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                generation.incrementAndGet(); // stops a render in progress at its next band
+                worker.shutdown();
+                scaler.shutdown();
+                synchronized (renders) {
+                    renders.clear();
+                    bytes = 0;
+                }
+            }
+        });
+
+        frame.setVisible(true);
+        update();
+    }
+
+    // Called on the EDT whenever a control changes.
+    private void update() {
+        int type = typeBox.getSelectedIndex() + 1;
+        int level = (type == 4) ? ColorKernels.FULL : severity.getValue();
+        boolean lin = linear.isSelected();
+        long gen = generation.incrementAndGet();
+
+        Render full = cached(key(type, level, lin, false));
+        Render small = (quick == source) ? null : cached(key(type, level, lin, true));
+        shownFull = full;
+        shownQuick = small;
+        rescale();
+        if (full != null && full.isDone()) {
+            status.setText("Full resolution " + source.getWidth() + "x" + source.getHeight() + " (cached)");
+            return;
+        }
+        if (worker.isShutdown()) return; // window closed, e.g. an event still queued behind windowClosed
+        status.setText("Rendering...");
+        worker.execute(() -> render(gen, type, level, lin));
+    }
+
+    // Worker thread: the quick preview if needed, then the full image.
+    private void render(long gen, int type, int level, boolean lin) {
+        if (gen != generation.get()) return;
+        if (quick != source) {
+            Render small = renderOf(key(type, level, lin, true), quick, type);
+            if (!fill(small, quick, type, level, lin, gen, false)) return;
+            SwingUtilities.invokeLater(() -> {
+                if (gen != generation.get()) return;
+                shownQuick = small;
+                status.setText("Preview " + quick.getWidth() + "x" + quick.getHeight() + ", refining...");
+                rescale();
+            });
+        }
+
+        Render full = renderOf(key(type, level, lin, false), source, type);
+        SwingUtilities.invokeLater(() -> {
+            if (gen == generation.get()) shownFull = full;
+        });
+        long start = System.nanoTime();
+        if (!fill(full, source, type, level, lin, gen, true)) return;
+        double secs = (System.nanoTime() - start) / 1e9;
+        SwingUtilities.invokeLater(() -> {
+            if (gen != generation.get()) return;
+            shownFull = full;
+            status.setText(String.format("Full resolution %dx%d in %.2f s",
+                    source.getWidth(), source.getHeight(), secs));
+            rescale();
+        });
+    }
+
+    // Renders the rows of r not done yet, a band at a time. False when a newer
+    // generation took over; the rows finished so far stay in the cache.
+    private boolean fill(Render r, BufferedImage src, int type, int level, boolean lin, long gen, boolean progressive) {
+        int w = src.getWidth(), h = src.getHeight();
+        int[] in = ColorKernels.pixels(src);
+        int[] sim = ColorKernels.pixels(r.sim);
+        int[] cor = (r.cor == null) ? null : ColorKernels.pixels(r.cor);
+        int step = BAND_ROWS * TileEngine.getParallelism();
+        long lastPaint = System.nanoTime();
+
+        while (r.rowsDone < h) {
+            if (gen != generation.get()) return false;
+            int top = r.rowsDone, rows = Math.min(step, h - top);
+            TileEngine.run(rows, (y0, y1) -> {
+                int from = (top + y0) * w, to = (top + y1) * w;
+                ColorKernels.simulate(in, sim, from, to, type, level, lin);
+                if (cor != null) ColorKernels.daltonize(in, sim, cor, from, to, type, level, lin);
+            });
+            r.rowsDone = top + rows;
+            if (progressive && System.nanoTime() - lastPaint > REPAINT_NANOS) {
+                lastPaint = System.nanoTime();
+                SwingUtilities.invokeLater(() -> {
+                    if (gen != generation.get()) return;
+                    status.setText("Refining... " + (100L * r.rowsDone / h) + "%");
+                    rescale();
+                });
+            }
+        }
+        return true;
+    }
+
+    private static String key(int type, int level, boolean lin, boolean small) {
+        return type + "/" + level + (lin ? "/linear" : "") + (small ? "/preview" : "");
+    }
+
+    private Render cached(String key) {
+        synchronized (renders) {
+            return renders.get(key);
+        }
+    }
+
+    // The cached render for key, or a new empty one added to the cache.
+    private Render renderOf(String key, BufferedImage src, int type) {
+        synchronized (renders) {
+            Render r = renders.get(key);
+            if (r != null) return r;
+            r = new Render(src.getWidth(), src.getHeight(), type != 4);
+            renders.put(key, r);
+            bytes += r.bytes();
+            // least recently used first; always keep the one just added
+            Iterator<Map.Entry<String, Render>> it = renders.entrySet().iterator();
+            while (bytes > BUDGET && renders.size() > 1 && it.hasNext()) {
+                Render old = it.next().getValue();
+                if (old == r) continue;
+                bytes -= old.bytes();
+                it.remove();
+            }
+            return r;
+        }
+    }
+
+    // Called on the EDT: queues a rebuild of the display-size views for what
+    // is shown now. Only the latest queued request runs; a result is shown
+    // unless a later one already is.
+    private void rescale() {
+        Dimension size = views.viewSize();
+        if (size.width <= 0 || size.height <= 0 || scaler.isShutdown()) return;
+        long request = scaleRequests.incrementAndGet();
+        Render full = shownFull;
+        Render small = (shownQuick != null && (full == null || !full.isDone())) ? shownQuick : null;
+        scaler.execute(() -> {
+            if (request != scaleRequests.get()) return;
+            Scaled s = scale(size.width, size.height, small, full);
+            SwingUtilities.invokeLater(() -> {
+                if (request < scaledRequest) return;
+                scaledRequest = request;
+                scaled = s;
+                views.repaint();
+            });
+        });
+    }
+
+    // Scaler thread: the original, and the quick preview with the finished
+    // rows of the full render drawn over it, at width x height.
+    private Scaled scale(int width, int height, Render small, Render full) {
+        if (scaledSource == null || scaledSource.getWidth() != width || scaledSource.getHeight() != height) {
+            scaledSource = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = scaledSource.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(source, 0, 0, width, height, null);
+            g.dispose();
+        }
+        BufferedImage sim = scaleViews(width, height, small, full, 1);
+        boolean correct = (small != null && small.cor != null) || (full != null && full.cor != null);
+        BufferedImage cor = correct ? scaleViews(width, height, small, full, 2) : sim;
+        return new Scaled(width, height, scaledSource, sim, cor);
+    }
+
+    // Transparent where nothing is rendered yet, so the panel shows through.
+    private BufferedImage scaleViews(int width, int height, Render small, Render full, int v) {
+        BufferedImage out = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = out.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        if (small != null) g.drawImage(view(small, v), 0, 0, width, height, null);
+        if (full != null) {
+            int rows = full.rowsDone;
+            if (rows > 0) {
+                int drows = (int) Math.round((double) rows * height / source.getHeight());
+                g.drawImage(view(full, v), 0, 0, width, drows, 0, 0, source.getWidth(), rows, null);
+            }
+        }
+        g.dispose();
+        return out;
+    }
+
+    private static BufferedImage view(Render r, int v) {
+        return (v == 2 && r.cor != null) ? r.cor : r.sim;
+    }
+
+    // Source scaled so its long side is at most size, or the source itself.
+    private static BufferedImage downsample(BufferedImage src, int size) {
+        int w = src.getWidth(), h = src.getHeight();
+        double scale = (double) size / Math.max(w, h);
+        if (scale >= 0.5) return src; // not worth a separate pass
+        int sw = Math.max(1, (int) Math.round(w * scale)), sh = Math.max(1, (int) Math.round(h * scale));
+        BufferedImage out = new BufferedImage(sw, sh, src.getColorModel().hasAlpha()
+                ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = out.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(src, 0, 0, sw, sh, null);
+        g.dispose();
+        return out;
+    }
+
+    // The three views, each fitted to its third of the panel. It paints the
+    // display-size images from the scaler as they are; while a resize is
+    // being caught up with, those small images are stretched to the new size.
+    private final class ViewPanel extends JPanel {
+        private static final long serialVersionUID = 1L;
+        private static final int LABEL_H = 20;
+
+        ViewPanel() {
+            super(new GridLayout(1, 3));
+            setPreferredSize(new Dimension(1200, 420));
+            setBackground(Color.DARK_GRAY);
+        }
+
+        // Size of one view at the panel's current size.
+        Dimension viewSize() {
+            int cell = getWidth() / 3;
+            double scale = Math.min((double) (cell - 8) / source.getWidth(),
+                    (double) (getHeight() - LABEL_H - 4) / source.getHeight());
+            return new Dimension((int) (source.getWidth() * scale), (int) (source.getHeight() * scale));
+        }
+
+        @Override
+        protected void paintComponent(Graphics g0) {
+            super.paintComponent(g0);
+            Graphics2D g = (Graphics2D) g0;
+            int cell = getWidth() / 3;
+            Dimension size = viewSize();
+            Scaled s = scaled;
+            String[] titles = {"Original", "Simulated", "Corrected"};
+            for (int v = 0; v < 3; v++) {
+                g.setColor(Color.WHITE);
+                g.drawString(titles[v], v * cell + 8, 15);
+                if (s == null || size.width <= 0 || size.height <= 0) continue;
+
+                BufferedImage img = (v == 0) ? s.original() : (v == 1) ? s.sim() : s.cor();
+                int dx = v * cell + (cell - size.width) / 2;
+                if (s.width() == size.width && s.height() == size.height) {
+                    g.drawImage(img, dx, LABEL_H, null);
+                } else {
+                    g.drawImage(img, dx, LABEL_H, size.width, size.height, null);
+                }
+            }
+        }
+    }
+}
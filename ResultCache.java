@@ -0,0 +1,433 @@
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Content-addressed cache of encoded outputs. An entry is named after a
+// 64-bit hash of the decoded pixels plus everything else that shapes the
+// bytes: type, severity level, linear mode, ColorKernels.ALGORITHM_VERSION
+// and the output codec settings. A second map remembers which pixel hash a
+// source file had at a given (path, size, mtime), so an unchanged file is a
+// hit without decoding it at all; a changed or new file is hashed after
+// decoding and still hits if the same pixels were processed before under
+// another name.
+//
+// Files live in <dir>/<first two hex digits>/<key><suffix>. The index is a
+// text file that is only ever replaced by an atomic rename, so readers in
+// any process see either the old or the new version, never a partial one.
+// Writers take a lock file, merge the index on disk with their own (so
+// concurrent processes don't drop each other's entries), evict the least
+// recently used files over the size limit, and rename a fresh index in.
+// That work runs on a snapshot outside the class lock, so lookups from
+// other threads never wait on it. An entry only this process knows about
+// whose file is gone was evicted by another process, and is dropped.
+//
+//   -Dcoloraid.cache=true        turn it on (off by default)
+//   -Dcoloraid.cache.dir=DIR     (default coloraid-cache, next to coloraid.db)
+//   -Dcoloraid.cache.mb=N        size limit (default 512)
+//   -Dcoloraid.cache.verify=true print the mismatch count of verify() at startup
+final class ResultCache {
+
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("coloraid.cache", "false"));
+    private static final Path DIR = Paths.get(System.getProperty("coloraid.cache.dir", "coloraid-cache"));
+    private static final long BUDGET = Long.getLong("coloraid.cache.mb", 512) * 1024 * 1024;
+    private static final Path INDEX = DIR.resolve("index.tsv");
+    private static final Path LOCK = DIR.resolve("index.lock");
+    private static final String HEADER = "# coloraid result cache v1";
+    private static final long SAVE_INTERVAL_MS = 1000;
+
+    // Identity of a source file as last seen on disk.
+    record Source(String path, long size, long mtime) {
+        static Source of(File file) {
+            return new Source(file.getAbsolutePath(), file.length(), file.lastModified());
+        }
+    }
+
+    private record Entry(long bytes, long lastUsed) {}
+
+    private record Known(long size, long mtime, String hash) {}
+
+    // all guarded by the class lock
+    private static Map<String, Entry> entries;     // file name -> size and last use
+    private static Map<String, Known> sources;     // absolute path -> pixel hash
+    private static boolean dirty;
+    private static long lastSave;
+
+    // held by the one thread merging and writing the index
+    private static final ReentrantLock SAVING = new ReentrantLock();
+
+    static {
+        if (ENABLED) {
+            Runtime.getRuntime().addShutdownHook(new Thread(ResultCache::flush, "result-cache-flush"));
+            if (Boolean.getBoolean("coloraid.cache.verify")) {
+                System.out.println("Result cache mismatches: " + verify());
+            }
+        }
+    }
+
+    private ResultCache() {}
+
+    // Cache key for one rendering of an image with the given pixel hash.
+    static String key(String pixelHash, int type, int level, boolean linear) {
+        String codec = switch (OutputEncoder.FORMAT) {
+            // "z": "png<level>" entries were written when ImageIO's files
+            // could be one level lower than the name said
+            case "png" -> "pngz" + OutputEncoder.PNG_LEVEL;
+            case "jpg", "jpeg" -> "jpg" + Math.round(OutputEncoder.JPEG_QUALITY * 100);
+            default -> OutputEncoder.FORMAT;
+        };
+        return pixelHash + "-t" + type + "s" + (ColorKernels.isFull(type, level) ? "F" : level + "of" + ColorKernels.FULL)
+                + (linear ? "L" : "") + "-v" + ColorKernels.ALGORITHM_VERSION + "-" + codec;
+    }
+
+    // 64-bit hash of the size and every ARGB value, as 16 hex digits.
+    static String pixelHash(BufferedImage img) {
+        BufferedImage src = ColorKernels.toIntRGB(img);
+        int[] px = ColorKernels.pixels(src);
+        int n = src.getWidth() * src.getHeight();
+        long h = 0x9E3779B97F4A7C15L ^ ((long) src.getWidth() << 32 | src.getHeight());
+        int i = 0;
+        // two pixels per step
+        for (; i + 1 < n; i += 2) {
+            long k = ((long) px[i] << 32) | (px[i + 1] & 0xFFFFFFFFL);
+            k *= 0x87C37B91114253D5L;
+            k = Long.rotateLeft(k, 31) * 0x4CF5AD432745937FL;
+            h = Long.rotateLeft(h ^ k, 27) * 5 + 0x52DCE729;
+        }
+        if (i < n) h ^= (px[i] & 0xFFFFFFFFL) * 0x87C37B91114253D5L;
+        h ^= n;
+        // fmix64
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return String.format("%016x", h);
+    }
+
+    // Pixel hash recorded for this exact file, or null if it is new or changed.
+    static synchronized String knownHash(Source source) {
+        load();
+        Known k = sources.get(source.path());
+        return (k != null && k.size() == source.size() && k.mtime() == source.mtime()) ? k.hash() : null;
+    }
+
+    static void rememberHash(Source source, String hash) {
+        boolean due = false;
+        synchronized (ResultCache.class) {
+            load();
+            Known known = new Known(source.size(), source.mtime(), hash);
+            if (!known.equals(sources.put(source.path(), known))) due = changed();
+        }
+        if (due) saveIfIdle();
+    }
+
+    // Whether every output for key is in the index.
+    static synchronized boolean contains(String key, String[] suffixes) {
+        load();
+        for (String suffix : suffixes) {
+            if (!entries.containsKey(key + suffix + OutputEncoder.extension())) return false;
+        }
+        return true;
+    }
+
+    // Copies the cached outputs for key to targets (suffixes[i] goes to
+    // targets[i]). Each is copied to a temp file next to its target first and
+    // only renamed into place once all copies succeeded, so a miss never
+    // leaves some targets replaced and others not. False when any is missing.
+    static boolean fetch(String key, String[] suffixes, File[] targets) {
+        String ext = OutputEncoder.extension();
+        if (!contains(key, suffixes)) return false;
+        Path[] temps = new Path[targets.length];
+        try {
+            try {
+                for (int i = 0; i < suffixes.length; i++) {
+                    Path target = targets[i].toPath().toAbsolutePath();
+                    temps[i] = Files.createTempFile(target.getParent(), "." + target.getFileName(), ".part");
+                    Files.copy(file(key + suffixes[i] + ext), temps[i], StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (NoSuchFileException e) {
+                // evicted by another process in the meantime
+                synchronized (ResultCache.class) {
+                    for (String suffix : suffixes) entries.remove(key + suffix + ext);
+                }
+                return false;
+            }
+            for (int i = 0; i < temps.length; i++) {
+                Files.move(temps[i], targets[i].toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            System.out.println("Could not copy cached outputs for " + targets[0] + ": " + e.getMessage());
+            return false;
+        } finally {
+            for (Path tmp : temps) {
+                if (tmp != null) try { Files.deleteIfExists(tmp); } catch (IOException ignored) {}
+            }
+        }
+        boolean due;
+        synchronized (ResultCache.class) {
+            long now = System.currentTimeMillis();
+            for (String suffix : suffixes) {
+                String name = key + suffix + ext;
+                Entry e = entries.get(name);
+                if (e != null) entries.put(name, new Entry(e.bytes(), now));
+            }
+            due = changed();
+        }
+        if (due) saveIfIdle();
+        return true;
+    }
+
+    // Adds an output file that was just written for key.
+    static void store(String key, String suffix, File output) {
+        String name = key + suffix + OutputEncoder.extension();
+        Path target = file(name);
+        try {
+            Files.createDirectories(target.getParent());
+            Path tmp = Files.createTempFile(target.getParent(), name, ".tmp");
+            try {
+                Files.copy(output.toPath(), tmp, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            long size = Files.size(target);
+            boolean due;
+            synchronized (ResultCache.class) {
+                load();
+                entries.put(name, new Entry(size, System.currentTimeMillis()));
+                due = changed();
+            }
+            if (due) saveIfIdle();
+        } catch (IOException e) {
+            System.out.println("Could not cache " + output + ": " + e.getMessage());
+        }
+    }
+
+    // Writes pending index changes now (also run at exit).
+    static void flush() {
+        SAVING.lock();
+        try {
+            save();
+        } finally {
+            SAVING.unlock();
+        }
+    }
+
+    // Number of failed checks in a key and fetch round trip: the pixel hash
+    // and key are stable and change with every input, and an output stored
+    // under a key comes back from fetch() byte for byte. The entry uses type
+    // 0, which no real rendering has, so it never answers a lookup; it is
+    // rewritten on each run and evicted like any other.
+    static long verify() {
+        long bad = 0;
+        BufferedImage img = new BufferedImage(37, 23, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) img.setRGB(x, y, x * 0x070503 ^ y * 0x030507);
+        }
+        String hash = pixelHash(img);
+        if (!hash.equals(pixelHash(img))) bad++;
+        img.setRGB(36, 22, img.getRGB(36, 22) ^ 1);
+        if (hash.equals(pixelHash(img))) bad++;
+
+        Set<String> keys = new HashSet<>();
+        for (int type = 1; type <= 4; type++) {
+            // achromatopsia has no partial severities
+            int[] levels = (type == 4) ? new int[] {ColorKernels.FULL} : new int[] {ColorKernels.FULL, ColorKernels.FULL / 2};
+            for (int level : levels) {
+                for (boolean linear : new boolean[] {false, true}) {
+                    String k = key(hash, type, level, linear);
+                    if (!k.equals(key(hash, type, level, linear)) || !keys.add(k)) bad++;
+                }
+            }
+        }
+
+        String key = key(hash, 0, ColorKernels.FULL, false);
+        String[] suffixes = {"_verify"};
+        byte[] data = new byte[4096];
+        new Random(42).nextBytes(data);
+        try {
+            Path out = Files.createTempFile("coloraid-verify", OutputEncoder.extension());
+            Path back = Files.createTempFile("coloraid-verify", OutputEncoder.extension());
+            try {
+                Files.write(out, data);
+                store(key, suffixes[0], out.toFile());
+                if (!fetch(key, suffixes, new File[] {back.toFile()})
+                        || !Arrays.equals(data, Files.readAllBytes(back))) bad++;
+            } finally {
+                Files.deleteIfExists(out);
+                Files.deleteIfExists(back);
+            }
+        } catch (IOException e) {
+            System.out.println("Cache round trip failed: " + e.getMessage());
+            bad++;
+        }
+        return bad;
+    }
+
+    private static Path file(String name) {
+        return DIR.resolve(name.substring(0, 2)).resolve(name);
+    }
+
+    // Marks the index dirty; true when a save is due (at most one per
+    // SAVE_INTERVAL_MS, flush() writes the rest). Called under the class lock,
+    // the save itself must not be.
+    private static boolean changed() {
+        dirty = true;
+        return System.currentTimeMillis() - lastSave >= SAVE_INTERVAL_MS;
+    }
+
+    // A due save, unless another thread is already writing the index.
+    private static void saveIfIdle() {
+        if (!SAVING.tryLock()) return;
+        try {
+            save();
+        } finally {
+            SAVING.unlock();
+        }
+    }
+
+    private static void load() {
+        if (entries != null) return;
+        entries = new HashMap<>();
+        sources = new HashMap<>();
+        read(entries, sources);
+    }
+
+    private static void read(Map<String, Entry> intoEntries, Map<String, Known> intoSources) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(INDEX, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException e) {
+            System.out.println("Cannot read cache index: " + e.getMessage());
+            return;
+        }
+        for (String line : lines) {
+            String[] f = line.split("\t", 5);
+            try {
+                if (f[0].equals("E") && f.length == 4) {
+                    intoEntries.put(f[1], new Entry(Long.parseLong(f[2]), Long.parseLong(f[3])));
+                } else if (f[0].equals("P") && f.length == 5) {
+                    intoSources.put(f[4], new Known(Long.parseLong(f[1]), Long.parseLong(f[2]), f[3]));
+                }
+            } catch (NumberFormatException ignored) {
+                // a line from a newer format; skip it
+            }
+        }
+    }
+
+    // Merge a snapshot with the index on disk, evict, and rename the result
+    // into place; then bring the in-memory maps in line. Holds SAVING, and the
+    // class lock only while copying in and out.
+    private static void save() {
+        Map<String, Entry> merged;
+        Map<String, Known> mergedSources;
+        synchronized (ResultCache.class) {
+            if (entries == null || !dirty) return;
+            merged = new HashMap<>(entries);
+            mergedSources = new HashMap<>(sources);
+            dirty = false;
+            lastSave = System.currentTimeMillis();
+        }
+        Map<String, Entry> snapshot = new HashMap<>(merged);
+        Map<String, Known> snapshotSources = new HashMap<>(mergedSources);
+        try {
+            Files.createDirectories(DIR);
+            try (FileChannel channel = FileChannel.open(LOCK, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                channel.lock(); // released when the channel closes
+                Map<String, Entry> disk = new HashMap<>();
+                Map<String, Known> diskSources = new HashMap<>();
+                read(disk, diskSources);
+                // ours but not in the index: new here, or evicted by another process
+                merged.keySet().removeIf(name -> !disk.containsKey(name) && !Files.exists(file(name)));
+                for (Map.Entry<String, Entry> e : disk.entrySet()) {
+                    merged.merge(e.getKey(), e.getValue(),
+                            (mine, theirs) -> mine.lastUsed() >= theirs.lastUsed() ? mine : theirs);
+                }
+                diskSources.forEach(mergedSources::putIfAbsent);
+
+                evict(merged, mergedSources);
+                write(merged, mergedSources);
+            }
+        } catch (IOException e) {
+            System.out.println("Cannot save cache index: " + e.getMessage());
+            synchronized (ResultCache.class) {
+                dirty = true;
+            }
+            return;
+        }
+        synchronized (ResultCache.class) {
+            // drop what is gone, unless it was stored again meanwhile; pick up
+            // other processes' entries
+            for (Map.Entry<String, Entry> e : snapshot.entrySet()) {
+                if (!merged.containsKey(e.getKey())) entries.remove(e.getKey(), e.getValue());
+            }
+            merged.forEach(entries::putIfAbsent);
+            for (Map.Entry<String, Known> k : snapshotSources.entrySet()) {
+                if (!mergedSources.containsKey(k.getKey())) sources.remove(k.getKey(), k.getValue());
+            }
+            mergedSources.forEach(sources::putIfAbsent);
+        }
+    }
+
+    // Drops the least recently used files until the total fits the budget,
+    // then any source whose hash no longer has a file.
+    private static void evict(Map<String, Entry> entries, Map<String, Known> sources) throws IOException {
+        long total = 0;
+        for (Entry e : entries.values()) total += e.bytes();
+        if (total > BUDGET) {
+            List<Map.Entry<String, Entry>> byAge = new ArrayList<>(entries.entrySet());
+            byAge.sort((a, b) -> Long.compare(a.getValue().lastUsed(), b.getValue().lastUsed()));
+            for (Map.Entry<String, Entry> e : byAge) {
+                if (total <= BUDGET) break;
+                Files.deleteIfExists(file(e.getKey()));
+                entries.remove(e.getKey());
+                total -= e.getValue().bytes();
+            }
+        }
+        Set<String> hashes = new HashSet<>();
+        for (String name : entries.keySet()) hashes.add(name.substring(0, 16));
+        sources.values().removeIf(k -> !hashes.contains(k.hash()));
+    }
+
+    private static void write(Map<String, Entry> entries, Map<String, Known> sources) throws IOException {
+        Path tmp = Files.createTempFile(DIR, "index", ".tmp");
+        try {
+            try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                out.write(HEADER);
+                out.write('\n');
+                for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                    out.write(String.format(Locale.ROOT, "E\t%s\t%d\t%d\n",
+                            e.getKey(), e.getValue().bytes(), e.getValue().lastUsed()));
+                }
+                for (Map.Entry<String, Known> s : sources.entrySet()) {
+                    Known k = s.getValue();
+                    out.write(String.format(Locale.ROOT, "P\t%d\t%d\t%s\t%s\n", k.size(), k.mtime(), k.hash(), s.getKey()));
+                }
+            }
+            Files.move(tmp, INDEX, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Streams test_results to CSV or NDJSON (one JSON object per line) for
+// research exports. Rows come off a forward-only cursor and go straight into
+// a buffered writer, so the heap stays flat however many rows there are.
+// test_date is written as ISO-8601 ("2025-10-30T13:15:34") by copying its
+// characters, not by parsing and formatting each row.
+//
+//   java ResultExporter <out.csv | out.ndjson | -> [--user=NAME] [--from=yyyy-MM-dd] [--to=yyyy-MM-dd]
+//                       [--format=csv|ndjson] [--db=jdbc:sqlite:coloraid.db]
+//
+//   -Dcoloraid.export.fetchSize=N  rows per driver fetch (default 1000)
+class ResultExporter {
+
+    enum Format { CSV, NDJSON }
+
+    private static final int FETCH_SIZE = Integer.getInteger("coloraid.export.fetchSize", 1000);
+    private static final int PROGRESS_ROWS = 500_000;
+    private static final String COLUMNS = "id, username, test_date, result, answers";
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: java ResultExporter <out.csv | out.ndjson | -> [--user=NAME] "
+                    + "[--from=yyyy-MM-dd] [--to=yyyy-MM-dd] [--format=csv|ndjson] [--db=URL]");
+            return;
+        }
+        String target = args[0];
+        String user = null, from = null, to = null, db = "jdbc:sqlite:coloraid.db";
+        Format format = target.endsWith(".ndjson") || target.endsWith(".json") ? Format.NDJSON : Format.CSV;
+        for (int i = 1; i < args.length; i++) {
+            String a = args[i];
+            if (a.startsWith("--user=")) user = a.substring(7);
+            else if (a.startsWith("--from=")) from = a.substring(7);
+            else if (a.startsWith("--to=")) to = a.substring(5);
+            else if (a.startsWith("--db=")) db = a.substring(5);
+            else if (a.equalsIgnoreCase("--format=csv")) format = Format.CSV;
+            else if (a.equalsIgnoreCase("--format=ndjson")) format = Format.NDJSON;
+            else {
+                System.out.println("Unknown option: " + a);
+                return;
+            }
+        }
+        try {
+            export(DbPool.forUrl(db), target, format, user, from, to);
+        } finally {
+            DbPool.closeAll();
+        }
+    }
+
+    // Writes matching rows to target ("-" for stdout). from and to are
+    // inclusive days; any filter may be null.
+    static long export(DbPool db, String target, Format format, String user, String from, String to) {
+        String toExclusive;
+        try {
+            if (from != null) LocalDate.parse(from);
+            toExclusive = (to == null) ? null : LocalDate.parse(to).plusDays(1).toString();
+        } catch (DateTimeParseException e) {
+            System.out.println("Dates must look like 2025-10-30: " + e.getParsedString());
+            return -1;
+        }
+
+        boolean toStdout = target.equals("-");
+        long start = System.nanoTime();
+        long rows;
+        Writer out = null;
+        try {
+            OutputStream os = toStdout ? System.out : new FileOutputStream(target);
+            Writer w = out = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8), 1 << 16);
+            rows = db.read(s -> {
+                List<String> params = new ArrayList<>(3);
+                PreparedStatement ps = s.prepare(query(user, from, toExclusive, params));
+                for (int i = 0; i < params.size(); i++) ps.setString(i + 1, params.get(i));
+                ps.setFetchSize(FETCH_SIZE);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return writeRows(rs, w, format, !toStdout);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            out.flush();
+        } catch (SQLException e) {
+            System.out.println("Export failed: " + e.getMessage());
+            return -1;
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("Cannot write " + target + ": " + e.getMessage());
+            return -1;
+        } finally {
+            if (out != null && !toStdout) {
+                try { out.close(); } catch (IOException ignored) {}
+            }
+        }
+
+        double secs = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+        String summary = String.format("Exported %d row(s) in %.2f s (%.0f rows/sec)", rows, secs, rows / secs);
+        if (toStdout) System.err.println(summary); // keep stdout clean for the data
+        else System.out.println(summary + " to " + target);
+        return rows;
+    }
+
+    // Filtering by user walks the (username, test_date) index; otherwise rows
+    // come in id order straight off the table. Neither needs a sort.
+    private static String query(String user, String from, String toExclusive, List<String> params) {
+        StringBuilder sql = new StringBuilder("SELECT " + COLUMNS + " FROM test_results WHERE 1 = 1");
+        if (user != null) {
+            sql.append(" AND username = ?");
+            params.add(user);
+        }
+        if (from != null) {
+            sql.append(" AND test_date >= ?");
+            params.add(from);
+        }
+        if (toExclusive != null) {
+            sql.append(" AND test_date < ?");
+            params.add(toExclusive);
+        }
+        sql.append(user != null ? " ORDER BY test_date, id" : " ORDER BY id");
+        return sql.toString();
+    }
+
+    private static long writeRows(ResultSet rs, Writer out, Format format, boolean progress)
+            throws SQLException, IOException {
+        if (format == Format.CSV) out.write("id,username,test_date,result,answers\n");
+        long rows = 0;
+        long start = System.nanoTime();
+        while (rs.next()) {
+            int id = rs.getInt(1);
+            String user = rs.getString(2), date = rs.getString(3), result = rs.getString(4), answers = rs.getString(5);
+            if (format == Format.CSV) {
+                out.write(Integer.toString(id));
+                out.write(',');
+                csv(out, user);
+                out.write(',');
+                isoDate(out, date);
+                out.write(',');
+                csv(out, result);
+                out.write(',');
+                csv(out, answers);
+                out.write('\n');
+            } else {
+                out.write("{\"id\":");
+                out.write(Integer.toString(id));
+                out.write(",\"username\":");
+                json(out, user);
+                out.write(",\"test_date\":");
+                if (date == null) {
+                    out.write("null");
+                } else {
+                    out.write('"');
+                    isoDate(out, date);
+                    out.write('"');
+                }
+                out.write(",\"result\":");
+                json(out, result);
+                out.write(",\"answers\":");
+                json(out, answers);
+                out.write("}\n");
+            }
+            if (++rows % PROGRESS_ROWS == 0 && progress) {
+                double secs = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+                System.out.printf("   %d rows (%.0f rows/sec)%n", rows, rows / secs);
+            }
+        }
+        return rows;
+    }
+
+    // "yyyy-MM-dd HH:mm:ss" -> "yyyy-MM-ddTHH:mm:ss"; anything else as stored.
+    private static void isoDate(Writer out, String date) throws IOException {
+        if (date == null) return;
+        if (date.length() == 19 && date.charAt(10) == ' ') {
+            out.write(date, 0, 10);
+            out.write('T');
+            out.write(date, 11, 8);
+        } else {
+            out.write(date);
+        }
+    }
+
+    private static void csv(Writer out, String value) throws IOException {
+        if (value == null) return;
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') out.write('"');
+            out.write(c);
+        }
+        out.write('"');
+    }
+
+    private static void json(Writer out, String value) throws IOException {
+        if (value == null) {
+            out.write("null");
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': out.write("\\\""); break;
+                case '\\': out.write("\\\\"); break;
+                case '\n': out.write("\\n"); break;
+                case '\r': out.write("\\r"); break;
+                case '\t': out.write("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        out.write("\\u00");
+                        out.write(Character.forDigit(c >> 4, 16));
+                        out.write(Character.forDigit(c & 0xF, 16));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+}
@@ -0,0 +1,203 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Running totals over test_results for reports: per user and per day, the
+// number of tests for each result and the latest test date. Triggers on
+// test_results keep them current, so every insert and delete - ResultWriter
+// batches, undo, DatabaseHelper.saveResult - updates the totals inside its
+// own transaction. Reports then read O(users) or O(days) rows instead of
+// scanning the whole history. verify() compares the totals with a fresh
+// GROUP BY (-Dcoloraid.db.verify=true, see ResultStore).
+class ResultStats {
+
+    record UserSummary(String username, int tests, String lastTest, Map<String, Integer> byResult) {}
+
+    record DaySummary(String day, int tests, String lastTest, Map<String, Integer> byResult) {}
+
+    private static final String USER_TABLE = "CREATE TABLE IF NOT EXISTS user_result_stats (" +
+            "username TEXT NOT NULL, " +
+            "result TEXT NOT NULL, " +
+            "tests INTEGER NOT NULL, " +
+            "last_test TEXT, " +
+            "PRIMARY KEY (username, result)) WITHOUT ROWID";
+    private static final String DAY_TABLE = "CREATE TABLE IF NOT EXISTS day_result_stats (" +
+            "day TEXT NOT NULL, " +
+            "result TEXT NOT NULL, " +
+            "tests INTEGER NOT NULL, " +
+            "last_test TEXT, " +
+            "PRIMARY KEY (day, result)) WITHOUT ROWID";
+
+    // test_date is "yyyy-MM-dd HH:mm:ss", so its first 10 characters are the day
+    private static final String ON_INSERT =
+            "CREATE TRIGGER IF NOT EXISTS test_results_stats_insert AFTER INSERT ON test_results BEGIN " +
+            "INSERT INTO user_result_stats(username, result, tests, last_test) " +
+            "VALUES (NEW.username, ifnull(NEW.result, ''), 1, NEW.test_date) " +
+            "ON CONFLICT(username, result) DO UPDATE SET tests = tests + 1, " +
+            "last_test = max(ifnull(last_test, ''), excluded.last_test); " +
+            "INSERT INTO day_result_stats(day, result, tests, last_test) " +
+            "VALUES (substr(NEW.test_date, 1, 10), ifnull(NEW.result, ''), 1, NEW.test_date) " +
+            "ON CONFLICT(day, result) DO UPDATE SET tests = tests + 1, " +
+            "last_test = max(ifnull(last_test, ''), excluded.last_test); " +
+            "END";
+    // The latest date is looked up again only for the group that lost a row,
+    // newest first with LIMIT 1: per day on idx_test_results_result_date
+    // (result, test_date), per user on idx_test_results_user_date, stopping at
+    // the user's latest row with that result (the unary + keeps the planner
+    // off the result index, which would walk everyone's tests).
+    private static final String ON_DELETE =
+            "CREATE TRIGGER IF NOT EXISTS test_results_stats_delete AFTER DELETE ON test_results BEGIN " +
+            "UPDATE user_result_stats SET tests = tests - 1, last_test = (" +
+            "SELECT test_date FROM test_results " +
+            "WHERE username = OLD.username AND +result IS OLD.result ORDER BY test_date DESC LIMIT 1) " +
+            "WHERE username = OLD.username AND result = ifnull(OLD.result, ''); " +
+            "DELETE FROM user_result_stats " +
+            "WHERE username = OLD.username AND result = ifnull(OLD.result, '') AND tests <= 0; " +
+            "UPDATE day_result_stats SET tests = tests - 1, last_test = (" +
+            "SELECT test_date FROM test_results " +
+            "WHERE result IS OLD.result " +
+            "AND test_date >= substr(OLD.test_date, 1, 10) AND test_date < substr(OLD.test_date, 1, 10) || '~' " +
+            "ORDER BY test_date DESC LIMIT 1) " +
+            "WHERE day = substr(OLD.test_date, 1, 10) AND result = ifnull(OLD.result, ''); " +
+            "DELETE FROM day_result_stats " +
+            "WHERE day = substr(OLD.test_date, 1, 10) AND result = ifnull(OLD.result, '') AND tests <= 0; " +
+            "END";
+
+    private static final String BACKFILL_USERS =
+            "INSERT INTO user_result_stats(username, result, tests, last_test) " +
+            "SELECT username, ifnull(result, ''), COUNT(*), max(test_date) FROM test_results " +
+            "GROUP BY username, ifnull(result, '')";
+    private static final String BACKFILL_DAYS =
+            "INSERT INTO day_result_stats(day, result, tests, last_test) " +
+            "SELECT substr(test_date, 1, 10), ifnull(result, ''), COUNT(*), max(test_date) FROM test_results " +
+            "GROUP BY substr(test_date, 1, 10), ifnull(result, '')";
+
+    private static final String USERS =
+            "SELECT username, result, tests, last_test FROM user_result_stats ORDER BY username";
+    private static final String DAYS =
+            "SELECT day, result, tests, last_test FROM day_result_stats WHERE day >= ? ORDER BY day DESC";
+
+    // Creates the tables and triggers; the first time, fills the totals from
+    // the rows already in test_results. Runs inside the caller's write transaction.
+    static void createTables(DbPool.Session s) throws SQLException {
+        try (Statement stmt = s.connection().createStatement()) {
+            boolean exists;
+            try (ResultSet rs = stmt.executeQuery(
+                    "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'user_result_stats'")) {
+                exists = rs.next();
+            }
+            stmt.execute(USER_TABLE);
+            stmt.execute(DAY_TABLE);
+            if (!exists) {
+                stmt.execute(BACKFILL_USERS);
+                stmt.execute(BACKFILL_DAYS);
+            }
+            stmt.execute(ON_INSERT);
+            // replaced rather than kept, so older databases get the current body
+            stmt.execute("DROP TRIGGER IF EXISTS test_results_stats_delete");
+            stmt.execute(ON_DELETE);
+        }
+        if (Boolean.getBoolean("coloraid.db.verify")) {
+            System.out.println("Result stats mismatches: " + verify(s));
+        }
+    }
+
+    // Rows where the trigger-maintained totals differ from the same totals
+    // counted from test_results now (a wrong row counts once from each side),
+    // so 0 when they agree.
+    static long verify(DbPool.Session s) throws SQLException {
+        String[][] pairs = {
+                {"SELECT username, result, tests, last_test FROM user_result_stats",
+                        BACKFILL_USERS.substring(BACKFILL_USERS.indexOf("SELECT"))},
+                {"SELECT day, result, tests, last_test FROM day_result_stats",
+                        BACKFILL_DAYS.substring(BACKFILL_DAYS.indexOf("SELECT"))}};
+        long bad = 0;
+        try (Statement stmt = s.connection().createStatement()) {
+            for (String[] p : pairs) {
+                for (String diff : new String[] {p[0] + " EXCEPT " + p[1], p[1] + " EXCEPT " + p[0]}) {
+                    try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM (" + diff + ")")) {
+                        if (rs.next()) bad += rs.getLong(1);
+                    }
+                }
+            }
+        }
+        return bad;
+    }
+
+    // One summary per user, in username order.
+    static List<UserSummary> byUser(DbPool db) throws SQLException {
+        long t = Metrics.start();
+        try {
+            return db.read(s -> {
+                List<UserSummary> users = new ArrayList<>();
+                try (ResultSet rs = s.prepare(USERS).executeQuery()) {
+                    String name = null;
+                    int tests = 0;
+                    String last = null;
+                    Map<String, Integer> counts = null;
+                    while (rs.next()) {
+                        if (!rs.getString(1).equals(name)) {
+                            if (name != null) users.add(new UserSummary(name, tests, last, counts));
+                            name = rs.getString(1);
+                            tests = 0;
+                            last = null;
+                            counts = new LinkedHashMap<>();
+                        }
+                        tests += rs.getInt(3);
+                        counts.put(rs.getString(2), rs.getInt(3));
+                        last = later(last, rs.getString(4));
+                    }
+                    if (name != null) users.add(new UserSummary(name, tests, last, counts));
+                }
+                return users;
+            });
+        } finally {
+            Metrics.USER_STATS.stop(t);
+        }
+    }
+
+    // One summary per day from fromDay ("yyyy-MM-dd", "" for all), newest first.
+    static List<DaySummary> byDay(DbPool db, String fromDay) throws SQLException {
+        long t = Metrics.start();
+        try {
+            return db.read(s -> {
+                List<DaySummary> days = new ArrayList<>();
+                PreparedStatement ps = s.prepare(DAYS);
+                ps.setString(1, fromDay);
+                try (ResultSet rs = ps.executeQuery()) {
+                    String day = null;
+                    int tests = 0;
+                    String last = null;
+                    Map<String, Integer> counts = null;
+                    while (rs.next()) {
+                        if (!rs.getString(1).equals(day)) {
+                            if (day != null) days.add(new DaySummary(day, tests, last, counts));
+                            day = rs.getString(1);
+                            tests = 0;
+                            last = null;
+                            counts = new LinkedHashMap<>();
+                        }
+                        tests += rs.getInt(3);
+                        counts.put(rs.getString(2), rs.getInt(3));
+                        last = later(last, rs.getString(4));
+                    }
+                    if (day != null) days.add(new DaySummary(day, tests, last, counts));
+                }
+                return days;
+            });
+        } finally {
+            Metrics.DAY_STATS.stop(t);
+        }
+    }
+
+    private static String later(String a, String b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        return a.compareTo(b) >= 0 ? a : b;
+    }
+}
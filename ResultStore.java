@@ -0,0 +1,331 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+// Queries over test_results that need to stay fast as the table grows.
+//
+// History is paged by keyset rather than OFFSET: each page starts strictly
+// after the (test_date, id) of the last row shown, which the composite index
+// on (username, test_date) - plus the implicit rowid - answers with a short
+// index range scan, so page N costs the same as page 1.
+//
+// Per-plate answers live in test_answers, one row per (result, plate) with
+// NULL for a skipped plate, next to a test_plates copy of the plate key. The
+// statistics below are then GROUP BY queries answered from indexes instead
+// of splitting every answers string in Java. The comma-joined answers column
+// is still written for the history screen and older readers; verify() checks
+// that the two agree.
+//   -Dcoloraid.db.verify=true  print the mismatch counts of this and
+//                              ResultStats.verify() when the tables are set up
+class ResultStore {
+
+    static final String HISTORY_INDEX =
+            "CREATE INDEX IF NOT EXISTS idx_test_results_user_date ON test_results(username, test_date)";
+    // result first for the distribution; test_date lets the ResultStats
+    // delete trigger find a day's latest test of a result without a scan
+    static final String RESULT_INDEX =
+            "CREATE INDEX IF NOT EXISTS idx_test_results_result_date ON test_results(result, test_date)";
+
+    static final String ANSWERS_TABLE = "CREATE TABLE IF NOT EXISTS test_answers (" +
+            "result_id INTEGER NOT NULL, " +
+            "plate INTEGER NOT NULL, " +
+            "answer TEXT, " +
+            "PRIMARY KEY (result_id, plate)) WITHOUT ROWID";
+    // covers the per-plate aggregates; the primary key columns ride along
+    static final String ANSWERS_INDEX =
+            "CREATE INDEX IF NOT EXISTS idx_test_answers_plate ON test_answers(plate, answer)";
+    // Any delete from test_results (undo, or a future cleanup path) drops
+    // that result's answers in the same statement.
+    static final String ANSWERS_ON_DELETE =
+            "CREATE TRIGGER IF NOT EXISTS test_results_answers_delete AFTER DELETE ON test_results BEGIN " +
+            "DELETE FROM test_answers WHERE result_id = OLD.id; " +
+            "END";
+    static final String PLATES_TABLE = "CREATE TABLE IF NOT EXISTS test_plates (" +
+            "plate INTEGER PRIMARY KEY, " +
+            "file TEXT NOT NULL, " +
+            "expected TEXT NOT NULL, " +
+            "deficiency TEXT NOT NULL)";
+
+    // Bumped by each one-time data migration (PRAGMA user_version).
+    // 2: results from an older plate set no longer go into test_answers.
+    private static final int SCHEMA_VERSION = 2;
+    static final String SKIPPED = "Skipped";
+
+    record Row(int id, String testDate, String result, String answers) {}
+
+    // Where the next page starts; null for the first page.
+    record Cursor(String testDate, int id) {}
+
+    record Page(List<Row> rows, Cursor next) {
+        boolean hasMore() {
+            return next != null;
+        }
+    }
+
+    // Error and skip counts for one plate across all stored tests.
+    record PlateStat(int plate, String file, String expected, String deficiency,
+                     int shown, int skipped, int wrong) {
+        double errorRate() {
+            int answered = shown - skipped;
+            return answered == 0 ? 0 : (double) wrong / answered;
+        }
+
+        double skipRate() {
+            return shown == 0 ? 0 : (double) skipped / shown;
+        }
+    }
+
+    record ResultCount(String result, int tests) {}
+
+    private static final String INSERT_ANSWER =
+            "INSERT OR REPLACE INTO test_answers(result_id, plate, answer) VALUES(?, ?, ?)";
+    private static final String INSERT_PLATE =
+            "INSERT OR REPLACE INTO test_plates(plate, file, expected, deficiency) VALUES(?, ?, ?, ?)";
+    private static final String DELETE_ANSWERS = "DELETE FROM test_answers WHERE result_id = ?";
+    private static final String PLATE_STATS =
+            "SELECT p.plate, p.file, p.expected, p.deficiency, COUNT(a.result_id), " +
+            "SUM(a.result_id IS NOT NULL AND a.answer IS NULL), " +
+            "SUM(a.answer <> p.expected COLLATE NOCASE) " +
+            "FROM test_plates p LEFT JOIN test_answers a ON a.plate = p.plate " +
+            "GROUP BY p.plate ORDER BY p.plate";
+    private static final String RESULT_COUNTS =
+            "SELECT result, COUNT(*) FROM test_results GROUP BY result ORDER BY COUNT(*) DESC, result";
+
+    private static final String FIRST_PAGE =
+            "SELECT id, test_date, result, answers FROM test_results " +
+            "WHERE username = ? ORDER BY test_date DESC, id DESC LIMIT ?";
+    private static final String NEXT_PAGE =
+            "SELECT id, test_date, result, answers FROM test_results " +
+            "WHERE username = ? AND (test_date, id) < (?, ?) ORDER BY test_date DESC, id DESC LIMIT ?";
+
+    static void createIndexes(DbPool.Session s) throws SQLException {
+        try (Statement stmt = s.connection().createStatement()) {
+            stmt.execute(HISTORY_INDEX);
+            stmt.execute(RESULT_INDEX);
+            stmt.execute("DROP INDEX IF EXISTS idx_test_results_result"); // a prefix of the one above
+        }
+    }
+
+    // Creates the per-plate tables, refreshes the plate key from the app's
+    // {file, expected, deficiency} rows and, once per database, splits the
+    // answers of results saved before test_answers existed.
+    static void createAnswerTables(DbPool.Session s, String[][] plates) throws SQLException {
+        int version;
+        try (Statement stmt = s.connection().createStatement()) {
+            stmt.execute(ANSWERS_TABLE);
+            stmt.execute(ANSWERS_INDEX);
+            stmt.execute(ANSWERS_ON_DELETE);
+            stmt.execute(PLATES_TABLE);
+            try (ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+                version = rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+
+        PreparedStatement ps = s.prepare(INSERT_PLATE);
+        for (int i = 0; i < plates.length; i++) {
+            ps.setInt(1, i);
+            ps.setString(2, plates[i][0]);
+            ps.setString(3, plates[i][1]);
+            ps.setString(4, plates[i][2]);
+            ps.addBatch();
+        }
+        ps.executeBatch();
+
+        if (version < SCHEMA_VERSION) {
+            int[] counts = migrateAnswers(s, plates.length);
+            try (Statement stmt = s.connection().createStatement()) {
+                stmt.execute("PRAGMA user_version = " + SCHEMA_VERSION);
+            }
+            if (counts[0] > 0) System.out.println("Migrated answers of " + counts[0] + " saved test(s).");
+            if (counts[1] > 0) {
+                System.out.println("Left " + counts[1] + " saved test(s) out of the plate statistics: "
+                        + "their answers are from an older plate set (not " + plates.length + " plates).");
+            }
+        }
+        if (Boolean.getBoolean("coloraid.db.verify")) {
+            System.out.println("test_answers mismatches: " + verify(s, plates.length));
+        }
+    }
+
+    // Splits the answers of results saved before test_answers existed and
+    // returns {migrated, left out}. Answer i is only plate i when the row has
+    // one answer per current plate; rows of another length come from an
+    // older plate set and order, so they get no test_answers rows (and lose
+    // any a version 1 migration gave them).
+    private static int[] migrateAnswers(DbPool.Session s, int plateCount) throws SQLException {
+        String legacy = "SELECT id, answers, " +
+                "EXISTS (SELECT 1 FROM test_answers WHERE result_id = test_results.id) " +
+                "FROM test_results WHERE answers IS NOT NULL";
+        List<Long> ids = new ArrayList<>();
+        List<List<String>> answers = new ArrayList<>();
+        List<Long> unmap = new ArrayList<>();
+        int leftOut = 0;
+        try (Statement stmt = s.connection().createStatement();
+             ResultSet rs = stmt.executeQuery(legacy)) {
+            while (rs.next()) {
+                List<String> split = splitAnswers(rs.getString(2));
+                boolean migrated = rs.getBoolean(3);
+                if (!matchesPlates(split, plateCount)) {
+                    leftOut++;
+                    if (migrated) unmap.add(rs.getLong(1));
+                } else if (!migrated) {
+                    ids.add(rs.getLong(1));
+                    answers.add(split);
+                }
+            }
+        }
+        for (long id : unmap) deleteAnswers(s, id);
+        for (int i = 0; i < ids.size(); i++) insertAnswers(s, ids.get(i), answers.get(i));
+        return new int[] {ids.size(), leftOut};
+    }
+
+    // Number of saved tests whose test_answers rows are not what their answers
+    // column maps to (one row per plate if it matches the current plates,
+    // none otherwise), plus results that are gone but still have answers.
+    static long verify(DbPool.Session s, int plateCount) throws SQLException {
+        long bad = 0;
+        PreparedStatement ps = s.prepare("SELECT plate, answer FROM test_answers WHERE result_id = ? ORDER BY plate");
+        try (Statement stmt = s.connection().createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT id, answers FROM test_results")) {
+            while (rs.next()) {
+                List<String> split = (rs.getString(2) == null) ? List.of() : splitAnswers(rs.getString(2));
+                List<String> expected = matchesPlates(split, plateCount) ? split : List.of();
+                List<String> stored = new ArrayList<>();
+                boolean inOrder = true;
+                ps.setLong(1, rs.getLong(1));
+                try (ResultSet a = ps.executeQuery()) {
+                    while (a.next()) {
+                        inOrder &= a.getInt(1) == stored.size();
+                        stored.add(a.getString(2));
+                    }
+                }
+                if (!inOrder || !stored.equals(expected)) bad++;
+            }
+        }
+        try (Statement stmt = s.connection().createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(DISTINCT result_id) FROM test_answers " +
+                     "WHERE result_id NOT IN (SELECT id FROM test_results)")) {
+            if (rs.next()) bad += rs.getLong(1);
+        }
+        return bad;
+    }
+
+    // Whether answers line up with the current plates, one per plate.
+    static boolean matchesPlates(List<String> answers, int plateCount) {
+        return answers.size() == plateCount;
+    }
+
+    // Stores one row per plate for resultId; null entries are skipped plates.
+    // Runs inside the caller's write transaction.
+    static void insertAnswers(DbPool.Session s, long resultId, List<String> answers) throws SQLException {
+        PreparedStatement ps = s.prepare(INSERT_ANSWER);
+        for (int i = 0; i < answers.size(); i++) {
+            ps.setLong(1, resultId);
+            ps.setInt(2, i);
+            ps.setString(3, answers.get(i));
+            ps.addBatch();
+        }
+        ps.executeBatch();
+    }
+
+    static void deleteAnswers(DbPool.Session s, long resultId) throws SQLException {
+        PreparedStatement ps = s.prepare(DELETE_ANSWERS);
+        ps.setLong(1, resultId);
+        ps.executeUpdate();
+    }
+
+    // The legacy comma-joined form of per-plate answers.
+    static String joinAnswers(List<String> answers) {
+        StringBuilder sb = new StringBuilder();
+        for (String a : answers) {
+            if (sb.length() > 0) sb.append(",");
+            sb.append(a == null ? SKIPPED : a);
+        }
+        return sb.toString();
+    }
+
+    // Inverse of joinAnswers; older rows used "-" for a skipped plate.
+    static List<String> splitAnswers(String joined) {
+        List<String> answers = new ArrayList<>();
+        if (joined.isEmpty()) return answers;
+        for (String part : joined.split(",", -1)) {
+            String a = part.trim();
+            answers.add(a.isEmpty() || a.equals("-") || a.equalsIgnoreCase(SKIPPED) ? null : a);
+        }
+        return answers;
+    }
+
+    static List<PlateStat> plateStats(DbPool db) throws SQLException {
+        long t = Metrics.start();
+        try {
+            return db.read(s -> {
+                List<PlateStat> stats = new ArrayList<>();
+                try (ResultSet rs = s.prepare(PLATE_STATS).executeQuery()) {
+                    while (rs.next()) {
+                        stats.add(new PlateStat(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4),
+                                rs.getInt(5), rs.getInt(6), rs.getInt(7)));
+                    }
+                }
+                return stats;
+            });
+        } finally {
+            Metrics.PLATE_STATS.stop(t);
+        }
+    }
+
+    // How many stored tests ended in each result, most common first.
+    static List<ResultCount> resultDistribution(DbPool db) throws SQLException {
+        long t = Metrics.start();
+        try {
+            return db.read(s -> {
+                List<ResultCount> counts = new ArrayList<>();
+                try (ResultSet rs = s.prepare(RESULT_COUNTS).executeQuery()) {
+                    while (rs.next()) counts.add(new ResultCount(rs.getString(1), rs.getInt(2)));
+                }
+                return counts;
+            });
+        } finally {
+            Metrics.RESULT_COUNTS.stop(t);
+        }
+    }
+
+    // Up to pageSize results for username, newest first, after the cursor.
+    static Page history(DbPool db, String username, Cursor after, int pageSize) throws SQLException {
+        long t = Metrics.start();
+        try {
+            return db.read(s -> {
+                PreparedStatement ps;
+                if (after == null) {
+                    ps = s.prepare(FIRST_PAGE);
+                    ps.setString(1, username);
+                    ps.setInt(2, pageSize + 1);
+                } else {
+                    ps = s.prepare(NEXT_PAGE);
+                    ps.setString(1, username);
+                    ps.setString(2, after.testDate());
+                    ps.setInt(3, after.id());
+                    ps.setInt(4, pageSize + 1);
+                }
+
+                List<Row> rows = new ArrayList<>(pageSize);
+                boolean more = false;
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        if (rows.size() == pageSize) {
+                            more = true; // the extra row only tells us another page exists
+                            break;
+                        }
+                        rows.add(new Row(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4)));
+                    }
+                }
+                Row last = rows.isEmpty() ? null : rows.get(rows.size() - 1);
+                return new Page(rows, more ? new Cursor(last.testDate(), last.id()) : null);
+            });
+        } finally {
+            Metrics.HISTORY_PAGE.stop(t);
+        }
+    }
+}
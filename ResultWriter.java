@@ -0,0 +1,163 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Write-behind queue for finished tests. submit() returns at once with a
+// future for the new row id; a background thread groups queued results into
+// one transaction with addBatch/executeBatch. A batch is flushed when
+// BATCH_SIZE results are waiting, or FLUSH_MS after its first result (0 means
+// as soon as the writer is free - results that arrive during a commit go
+// into the next batch). Many tests finishing together then cost one commit
+// instead of one each.
+//
+// Pending results are flushed before DbPool closes, on Exit and at JVM
+// shutdown.
+//
+// Each result's per-plate answers go into test_answers in the same
+// transaction as its test_results row (see ResultStore).
+//
+//   -Dcoloraid.results.batchSize=N  (default 64)
+//   -Dcoloraid.results.flushMs=N    (default 0)
+class ResultWriter {
+
+    private static final int BATCH_SIZE = Integer.getInteger("coloraid.results.batchSize", 64);
+    private static final long FLUSH_MS = Long.getLong("coloraid.results.flushMs", 0);
+    // same text format as SQLite's datetime('now'), which is UTC
+    private static final DateTimeFormatter SQL_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final String INSERT =
+            "INSERT INTO test_results(username, test_date, answers, result) VALUES(?, ?, ?, ?)";
+
+    private static final Map<String, ResultWriter> WRITERS = new ConcurrentHashMap<>();
+
+    private record Pending(String username, String testDate, List<String> answers, String result,
+                           CompletableFuture<Integer> id) {}
+
+    private final DbPool db;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread worker;
+    private volatile boolean stopping;
+
+    private ResultWriter(String url) {
+        this.db = DbPool.forUrl(url);
+        this.worker = new Thread(this::run, "result-writer");
+        worker.setDaemon(true);
+        worker.start();
+        DbPool.beforeClose(this::shutdown);
+    }
+
+    static ResultWriter forUrl(String url) {
+        return WRITERS.computeIfAbsent(url, ResultWriter::new);
+    }
+
+    // Queues one result with its answers in plate order (null for a skipped
+    // plate); the future completes with its row id once committed.
+    CompletableFuture<Integer> submit(String username, List<String> answers, String result) {
+        CompletableFuture<Integer> id = new CompletableFuture<>();
+        String now = LocalDateTime.now(ZoneOffset.UTC).format(SQL_TIME);
+        // checked and queued under the lock shutdown() sets stopping with, so
+        // a result is either refused here or queued before its final drain
+        synchronized (queue) {
+            if (stopping) {
+                id.completeExceptionally(new SQLException("Result writer is shut down"));
+                return id;
+            }
+            queue.add(new Pending(username, now, new ArrayList<>(answers), result, id));
+        }
+        return id;
+    }
+
+    // Stops taking new results and waits until everything queued is committed.
+    void shutdown() {
+        synchronized (queue) {
+            stopping = true;
+        }
+        worker.interrupt();
+        try {
+            worker.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // anything queued before stopping that the worker did not commit
+        List<Pending> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) flush(rest);
+        // only left if the worker outlived the join; don't leave callers waiting
+        rest.clear();
+        queue.drainTo(rest);
+        for (Pending p : rest) p.id().completeExceptionally(new SQLException("Result writer is shut down"));
+        WRITERS.values().remove(this);
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(BATCH_SIZE);
+        while (true) {
+            try {
+                Pending first = queue.take();
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FLUSH_MS);
+                while (batch.size() < BATCH_SIZE) {
+                    long wait = deadline - System.nanoTime();
+                    if (wait <= 0) break;
+                    Pending next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                    queue.drainTo(batch, BATCH_SIZE - batch.size());
+                }
+            } catch (InterruptedException e) {
+                // shutting down: commit whatever is still queued, then exit
+                queue.drainTo(batch);
+                if (!batch.isEmpty()) flush(batch);
+                return;
+            }
+            flush(batch);
+            batch.clear();
+            if (stopping && queue.isEmpty()) return;
+        }
+    }
+
+    private void flush(List<Pending> batch) {
+        long t = Metrics.start();
+        try {
+            long lastId = db.write(s -> {
+                PreparedStatement ps = s.prepare(INSERT);
+                for (Pending p : batch) {
+                    ps.setString(1, p.username());
+                    ps.setString(2, p.testDate());
+                    ps.setString(3, ResultStore.joinAnswers(p.answers()));
+                    ps.setString(4, p.result());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                long last;
+                try (ResultSet rs = s.prepare("SELECT last_insert_rowid()").executeQuery()) {
+                    last = rs.next() ? rs.getLong(1) : -1L;
+                }
+                // One writer, one transaction: the batch got consecutive AUTOINCREMENT ids.
+                long first = last - batch.size() + 1;
+                for (int i = 0; i < batch.size(); i++) {
+                    ResultStore.insertAnswers(s, first + i, batch.get(i).answers());
+                }
+                return last;
+            });
+            long firstId = lastId - batch.size() + 1;
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).id().complete((int) (firstId + i));
+            }
+        } catch (SQLException | RuntimeException e) {
+            for (Pending p : batch) p.id().completeExceptionally(e);
+        }
+        Metrics.RESULT_FLUSH.stop(t);
+    }
+}
@@ -0,0 +1,428 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStreamImpl;
+
+// Frame-sequence mode for frame dumps of screen recordings and videos: a
+// directory of numbered frames is simulated frame by frame into a fixed set
+// of buffers that is allocated for the first frame and reused for the rest
+// (only a change of frame size allocates again). Each frame's file is read
+// into a reused byte array, decoded by a reader kept per format into a
+// reused destination image (ImageReadParam.setDestination), converted into
+// a reused int[] and run through the fused kernel into the reused
+// comparison canvas and correction image. PNG outputs are written straight
+// from those arrays.
+//
+// Outputs are encoded on their own threads, one per output file, while the
+// next frame is read and decoded; the kernel waits for them before it
+// overwrites the canvases, so steady throughput is set by the slower of
+// decoding and encoding rather than their sum.
+//
+// A frame identical to the previous one - the same file bytes, or failing
+// that the same decoded pixels - is not decoded or transformed again; its
+// outputs are copies of the previous frame's.
+//
+//   java SequenceProcessor <frame dir> <type 1-4> [severity 0.0-1.0] [output dir]
+//
+//   -Dcoloraid.sequence.outputs=simulated,corrected,comparison  which files to write (default all)
+//
+// Output format, severity steps, linear mode and parallelism follow the usual
+// -Dcoloraid.* properties.
+class SequenceProcessor {
+
+    private static final Pattern FRAME = Pattern.compile("(?i).*?(\\d+)\\D*\\.(png|jpe?g|bmp|gif)$");
+
+    private final int type, level;
+    private final boolean linear;
+    private final boolean[] wanted = new boolean[3];
+    private final Path outDir;
+
+    // ---- reused across frames ----
+    private final Map<String, ImageReader> readers = new HashMap<>();
+    private final Map<ImageReader, ImageReadParam> params = new HashMap<>();
+    private byte[] bytes = new byte[0], prevBytes = new byte[0];
+    private int length, prevLength = -1;
+    private int w, h;
+    private BufferedImage decoded;          // the reader's own layout, decoded into in place
+    private ImageTypeSpecifier decodedType;
+    private int[] cur, prev;                // packed pixels of this and the previous frame
+    private BufferedImage side, sim, cor;   // sim is a view of side's right half; cor is null for grayscale
+    private int[] sidePx, corPx;
+    private boolean opaque;
+    private final TileEngine.BandKernel kernel;
+    private File[] lastOutputs;
+    private final ExecutorService encoders;
+    private final List<Thread> encoderThreads = new CopyOnWriteArrayList<>();
+    private CompletableFuture<Void> encoding = CompletableFuture.completedFuture(null);
+
+    private int frames, sameBytes, samePixels;
+
+    SequenceProcessor(int type, int level, boolean linear, Path outDir, String outputs) {
+        this.type = type;
+        this.level = level;
+        this.linear = linear;
+        this.outDir = outDir;
+        kernel = (y0, y1) -> ColorKernels.fused(cur, w, sidePx, corPx, y0, y1, type, level, linear, opaque);
+        List<String> names = Arrays.asList("simulated", "corrected", "comparison");
+        for (String o : outputs.toLowerCase().split("[,\\s]+")) {
+            int k = names.indexOf(o);
+            if (k >= 0) wanted[k] = true;
+        }
+        int count = 0;
+        for (boolean want : wanted) if (want) count++;
+        encoders = Executors.newFixedThreadPool(Math.max(1, count), r -> {
+            Thread t = new Thread(r, "sequence-encoder-" + (encoderThreads.size() + 1));
+            t.setDaemon(true);
+            encoderThreads.add(t);
+            return t;
+        });
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java SequenceProcessor <frame dir> <type 1-4> [severity 0.0-1.0] [output dir]");
+            return;
+        }
+        int type;
+        try {
+            type = Integer.parseInt(args[1]);
+        } catch (NumberFormatException e) {
+            type = -1;
+        }
+        if (type < 1 || type > 4) {
+            System.out.println("Invalid type. Use a number from 1 to 4.");
+            return;
+        }
+        int level = ColorKernels.parseSeverity(args.length > 2 ? args[2] : null);
+        if (level < 0) {
+            System.out.println("Invalid severity. Use a number from 0.0 to 1.0.");
+            return;
+        }
+        run(Paths.get(args[0]), type, level, args.length > 3 ? Paths.get(args[3]) : null);
+    }
+
+    static void run(Path dir, int type, int level, Path outDir) {
+        boolean linear = ColorKernels.LINEAR;
+        if (outDir == null) outDir = dir.resolve("coloraid-" + ColorAidApp.outputName(type, level, linear));
+        List<Path> frames;
+        try {
+            frames = listFrames(dir, outDir);
+        } catch (IOException e) {
+            System.out.println("Cannot list frames: " + e.getMessage());
+            return;
+        }
+        if (frames.isEmpty()) {
+            System.out.println("No numbered frames found in " + dir);
+            return;
+        }
+        String outputs = System.getProperty("coloraid.sequence.outputs", "simulated,corrected,comparison");
+        SequenceProcessor seq = new SequenceProcessor(type, level, linear, outDir, outputs);
+        try {
+            Files.createDirectories(outDir);
+            System.out.println("Processing " + frames.size() + " frame(s) into " + outDir + "...");
+            seq.process(frames);
+        } catch (IOException e) {
+            System.out.println("Sequence stopped: " + e.getMessage());
+        } finally {
+            seq.readers.values().forEach(ImageReader::dispose);
+            seq.encoders.shutdown();
+        }
+    }
+
+    // Image files with a frame number in the name, in frame-number order
+    // (frame_2 before frame_10). When the outputs go to the frame directory
+    // itself, the files an earlier run wrote there (frame_2_simulated.png)
+    // also carry a frame number; they are left out.
+    static List<Path> listFrames(Path dir, Path outDir) throws IOException {
+        boolean sameDir = Files.isDirectory(outDir) && Files.isSameFile(dir, outDir);
+        try (var files = Files.list(dir)) {
+            return files.filter(p -> Files.isRegularFile(p) && FRAME.matcher(p.getFileName().toString()).matches())
+                    .filter(p -> !sameDir || !isOutput(p))
+                    .sorted((a, b) -> {
+                        int c = Long.compare(frameNumber(a), frameNumber(b));
+                        return c != 0 ? c : a.getFileName().compareTo(b.getFileName());
+                    })
+                    .toList();
+        }
+    }
+
+    private static boolean isOutput(Path p) {
+        String name = p.getFileName().toString();
+        name = name.substring(0, name.lastIndexOf('.'));
+        for (String suffix : ColorAidApp.OUTPUT_SUFFIXES) {
+            if (name.endsWith(suffix)) return true;
+        }
+        return false;
+    }
+
+    private static long frameNumber(Path p) {
+        Matcher m = FRAME.matcher(p.getFileName().toString());
+        if (!m.matches()) return Long.MAX_VALUE;
+        String digits = m.group(1);
+        return digits.length() > 18 ? Long.MAX_VALUE : Long.parseLong(digits);
+    }
+
+    void process(List<Path> frameFiles) throws IOException {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long start = System.nanoTime(), allocStart = 0;
+        for (Path file : frameFiles) {
+            if (frames == 1) {
+                // the first frame sets up every buffer; measure the steady state after it
+                allocStart = allocated(threads);
+                start = System.nanoTime();
+            }
+            processFrame(file);
+            frames++;
+        }
+        awaitEncoding();
+        double secs = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+        int steady = Math.max(1, frames - 1);
+        System.out.println("Sequence complete:");
+        System.out.println("   Frames:  " + frames + " (" + sameBytes + " identical files, "
+                + samePixels + " identical pixels, copied from the previous frame)");
+        if (frames > 1) {
+            long alloc = allocated(threads) - allocStart;
+            System.out.printf("   Rate:    %.1f frames/sec after the first, %dx%d%n", steady / secs, w, h);
+            System.out.printf("   Heap:    %.1f KB allocated per frame (decoding and encoding threads)%n",
+                    alloc / 1024.0 / steady);
+        }
+    }
+
+    // Bytes allocated so far by this thread and the encoder threads.
+    private long allocated(com.sun.management.ThreadMXBean threads) {
+        long total = threads.getThreadAllocatedBytes(Thread.currentThread().threadId());
+        for (Thread t : encoderThreads) total += Math.max(0, threads.getThreadAllocatedBytes(t.threadId()));
+        return total;
+    }
+
+    private void processFrame(Path file) throws IOException {
+        String base = file.getFileName().toString();
+        base = base.substring(0, base.lastIndexOf('.'));
+        String ext = OutputEncoder.extension();
+        String[] suffixes = ColorAidApp.OUTPUT_SUFFIXES;
+        File[] outputs = new File[suffixes.length];
+        for (int k = 0; k < outputs.length; k++) {
+            if (wanted[k]) outputs[k] = outDir.resolve(base + suffixes[k] + ext).toFile();
+        }
+
+        readFile(file);
+        if (lastOutputs != null && length == prevLength && Arrays.equals(bytes, 0, length, prevBytes, 0, length)) {
+            sameBytes++;
+            copyLast(outputs);
+            return;
+        }
+
+        decode(file);
+        int n = w * h;
+        if (lastOutputs != null && Arrays.equals(cur, 0, n, prev, 0, n)) {
+            samePixels++;
+            swapBytes();
+            copyLast(outputs);
+            return;
+        }
+
+        awaitEncoding(); // the previous frame's encoders still read the canvases
+        long t = Metrics.start();
+        TileEngine.run(h, kernel);
+        Metrics.FUSED.stop(t);
+        if (!opaque && wanted[2]) {
+            // composite the original as renderOutputs does: drawn over a black canvas
+            for (int y = 0; y < h; y++) Arrays.fill(sidePx, y * 2 * w, y * 2 * w + w, 0);
+            Graphics2D g = side.createGraphics();
+            g.drawImage(decoded, 0, 0, null);
+            g.dispose();
+        }
+        write(outputs);
+
+        int[] swap = prev;
+        prev = cur;
+        cur = swap;
+        swapBytes();
+        lastOutputs = outputs;
+    }
+
+    // Reads the whole file into the reused byte array.
+    private void readFile(Path file) throws IOException {
+        long size = Files.size(file);
+        if (size > Integer.MAX_VALUE - 8) throw new IOException(file + " is too large");
+        if (bytes.length < size) bytes = new byte[(int) Math.max(size, bytes.length * 3L / 2)];
+        try (InputStream in = Files.newInputStream(file)) {
+            length = in.readNBytes(bytes, 0, (int) size);
+        }
+    }
+
+    private void swapBytes() {
+        byte[] swap = prevBytes;
+        prevBytes = bytes;
+        bytes = swap;
+        prevLength = length;
+    }
+
+    private void decode(Path file) throws IOException {
+        long t = Metrics.start();
+        BytesInputStream in = new BytesInputStream(bytes, length);
+        String name = file.getFileName().toString();
+        String format = name.substring(name.lastIndexOf('.') + 1).toLowerCase();
+        ImageReader reader = readers.get(format);
+        if (reader == null) {
+            Iterator<ImageReader> it = ImageIO.getImageReaders(in);
+            if (!it.hasNext()) throw new IOException("Unsupported image format: " + file);
+            reader = it.next();
+            readers.put(format, reader);
+            params.put(reader, reader.getDefaultReadParam());
+        }
+        try {
+            reader.setInput(in, true, true);
+            int fw = reader.getWidth(0), fh = reader.getHeight(0);
+            ImageTypeSpecifier rawType = reader.getRawImageType(0);
+            if (fw != w || fh != h) {
+                awaitEncoding();
+                allocate(fw, fh);
+            }
+            ImageReadParam param = params.get(reader);
+            if (rawType == null) {
+                // no fixed raw layout (CMYK and other JPEGs that need a
+                // colour conversion): let the reader pick the image
+                param.setDestination(null);
+                decoded = reader.read(0, param);
+                decodedType = null;
+            } else {
+                if (decoded == null || !rawType.equals(decodedType)) {
+                    decoded = rawType.createBufferedImage(fw, fh);
+                    decodedType = rawType;
+                }
+                param.setDestination(decoded);
+                reader.read(0, param);
+            }
+        } finally {
+            reader.setInput(null);
+        }
+        opaque = !decoded.getColorModel().hasAlpha();
+        ColorKernels.toIntRGB(decoded, cur);
+        Metrics.DECODE.stop(t);
+    }
+
+    private void allocate(int fw, int fh) {
+        if (w != 0) System.out.println("   Frame size changed to " + fw + "x" + fh + "; reallocating buffers");
+        w = fw;
+        h = fh;
+        cur = new int[w * h];
+        prev = new int[w * h];
+        side = new BufferedImage(2 * w, h, BufferedImage.TYPE_INT_RGB);
+        sidePx = ColorKernels.pixels(side);
+        sim = side.getSubimage(w, 0, w, h);
+        cor = (type == 4) ? null : new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        corPx = (cor == null) ? null : ColorKernels.pixels(cor);
+        decoded = null;
+        lastOutputs = null; // nothing to compare against at the new size
+    }
+
+    // Starts encoding the wanted outputs; awaitEncoding() waits for them.
+    private void write(File[] outputs) {
+        List<CompletableFuture<Void>> jobs = new ArrayList<>(outputs.length);
+        for (int k = 0; k < outputs.length; k++) {
+            if (outputs[k] == null) continue;
+            int out = k;
+            jobs.add(CompletableFuture.runAsync(() -> {
+                try {
+                    encode(out, outputs[out]);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, encoders));
+        }
+        encoding = CompletableFuture.allOf(jobs.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private void encode(int k, File file) throws IOException {
+        if (!OutputEncoder.FORMAT.equals("png")) {
+            OutputEncoder.write((k == 2) ? side : (k == 1 && cor != null) ? cor : sim, file);
+            return;
+        }
+        // straight from the int arrays, no BufferedImage walk
+        long t = Metrics.start();
+        try (PngStripWriter out = new PngStripWriter(file, (k == 2) ? 2 * w : w, h, OutputEncoder.pngLevel())) {
+            if (k == 2) out.writeRows(sidePx, 0, 2 * w, h);
+            else if (k == 1 && corPx != null) out.writeRows(corPx, 0, w, h);
+            else out.writeRows(sidePx, w, 2 * w, h); // simulated, and "corrected" for grayscale
+        }
+        Metrics.ENCODE.stop(t);
+    }
+
+    private void awaitEncoding() throws IOException {
+        try {
+            encoding.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) throw io;
+            throw new IOException(cause);
+        }
+    }
+
+    private void copyLast(File[] outputs) throws IOException {
+        awaitEncoding();
+        for (int k = 0; k < outputs.length; k++) {
+            if (outputs[k] != null) {
+                Files.copy(lastOutputs[k].toPath(), outputs[k].toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        lastOutputs = outputs;
+    }
+
+    // An ImageInputStream over the first length bytes of an array, so frames
+    // decode from the reused buffer without ImageIO's caching streams.
+    private static final class BytesInputStream extends ImageInputStreamImpl {
+        private final byte[] data;
+        private final int length;
+
+        BytesInputStream(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+
+        @Override
+        public int read() {
+            bitOffset = 0;
+            return (streamPos < length) ? data[(int) streamPos++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            bitOffset = 0;
+            if (streamPos >= length) return -1;
+            int n = (int) Math.min(len, length - streamPos);
+            System.arraycopy(data, (int) streamPos, b, off, n);
+            streamPos += n;
+            return n;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+// What one signed-in user has in flight: their name, the test they are
+// taking and the ids of saved results they can still undo. Sessions share
+// nothing, so one process can hold as many as SessionRegistry hands out.
+// Result ids are pushed from the ResultWriter thread, hence the concurrent
+// deque; the test itself is driven by one thread at a time.
+class Session {
+
+    private final String id;
+    private final String username;
+    private final Deque<Integer> undoHistory = new ConcurrentLinkedDeque<>();
+    private volatile ColorTest test;
+    private volatile long lastActive = System.currentTimeMillis();
+
+    Session(String id, String username) {
+        this.id = id;
+        this.username = username;
+    }
+
+    String id() {
+        return id;
+    }
+
+    String username() {
+        return username;
+    }
+
+    // Starts a fresh test, replacing any unfinished one.
+    ColorTest startTest() {
+        touch();
+        test = new ColorTest();
+        return test;
+    }
+
+    // The test in progress, or null.
+    ColorTest test() {
+        return test;
+    }
+
+    void endTest() {
+        test = null;
+    }
+
+    void resultSaved(int resultId) {
+        undoHistory.push(resultId);
+    }
+
+    // Most recent result id still undoable, or null.
+    Integer popUndo() {
+        touch();
+        return undoHistory.pollFirst();
+    }
+
+    void touch() {
+        lastActive = System.currentTimeMillis();
+    }
+
+    long idleMillis() {
+        return System.currentTimeMillis() - lastActive;
+    }
+}
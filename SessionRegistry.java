@@ -0,0 +1,45 @@
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// All open sessions in this process, by session id. The console app opens
+// one at login; a kiosk fleet or web front end can open thousands. Ids are
+// random UUIDs, so they can be handed to clients as tokens.
+class SessionRegistry {
+
+    private static final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    static Session open(String username) {
+        Session s = new Session(UUID.randomUUID().toString(), username);
+        sessions.put(s.id(), s);
+        return s;
+    }
+
+    // The session for id, or null if it was closed or expired.
+    static Session get(String id) {
+        Session s = sessions.get(id);
+        if (s != null) s.touch();
+        return s;
+    }
+
+    static void close(String id) {
+        sessions.remove(id);
+    }
+
+    static int size() {
+        return sessions.size();
+    }
+
+    // Drops sessions idle for longer than maxIdleMillis; returns how many.
+    static int expireIdle(long maxIdleMillis) {
+        int removed = 0;
+        for (Iterator<Session> it = sessions.values().iterator(); it.hasNext(); ) {
+            if (it.next().idleMillis() > maxIdleMillis) {
+                it.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+}
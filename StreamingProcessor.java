@@ -0,0 +1,106 @@
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+// Bounded-memory path for images too large to decode in one go. The source
+// is read in bands of rows through ImageReadParam.setSourceRegion, each band
+// goes through the fused kernel, and the rows are appended to three
+// PngStripWriters (always PNG, at OutputEncoder's deflate level). Peak heap is a handful of band-sized buffers, whatever the
+// image size. The writers only rename their outputs into place once complete,
+// so a decode error part way leaves none of the three files behind.
+//
+// Note: PNG and JPEG readers have to decode past the rows above a region to
+// reach it, so smaller bands cost extra decode time. The band height is
+// derived from a pixel budget rather than fixed to keep the band count low.
+class StreamingProcessor {
+
+    // Images with at least this many pixels are streamed (-Dcoloraid.stream.minPixels, 0 = always).
+    static final long MIN_PIXELS = Long.getLong("coloraid.stream.minPixels", 24_000_000L);
+    // Pixels per band (-Dcoloraid.stream.bandPixels); about 16 MB per int buffer by default.
+    static final long BAND_PIXELS = Long.getLong("coloraid.stream.bandPixels", 4_000_000L);
+
+    static boolean shouldStream(int w, int h) {
+        return (long) w * h >= MIN_PIXELS;
+    }
+
+    // Width and height from the image header without decoding pixels, or null.
+    static int[] imageSize(File file) {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            if (in == null) return null;
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) return null;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                return new int[] {reader.getWidth(0), reader.getHeight(0)};
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Writes <prefix>_simulated.png, _corrected.png and _comparison.png for a
+    // type at a severity level (see ColorKernels.FULL), optionally in linear light.
+    static void process(File file, int type, int level, boolean linear, String prefix) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            Iterator<ImageReader> readers = (in == null) ? null : ImageIO.getImageReaders(in);
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Unsupported image format: " + file);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, false, true);
+                process(reader, type, level, linear, prefix);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static void process(ImageReader reader, int type, int level, boolean linear, String prefix) throws IOException {
+        int w = reader.getWidth(0), h = reader.getHeight(0);
+        int bandRows = (int) Math.max(1, Math.min(h, BAND_PIXELS / w));
+
+        BufferedImage side = new BufferedImage(w * 2, bandRows, BufferedImage.TYPE_INT_RGB);
+        int[] sidePx = ColorKernels.pixels(side);
+        int[] corPx = (type == 4) ? null : new int[w * bandRows];
+        int pngLevel = OutputEncoder.pngLevel();
+
+        try (PngStripWriter simOut = new PngStripWriter(new File(prefix + "_simulated.png"), w, h, pngLevel);
+             PngStripWriter corOut = new PngStripWriter(new File(prefix + "_corrected.png"), w, h, pngLevel);
+             PngStripWriter sideOut = new PngStripWriter(new File(prefix + "_comparison.png"), w * 2, h, pngLevel)) {
+
+            ImageReadParam param = reader.getDefaultReadParam();
+            for (int y = 0; y < h; y += bandRows) {
+                int rows = Math.min(bandRows, h - y);
+                param.setSourceRegion(new Rectangle(0, y, w, rows));
+                BufferedImage band = reader.read(0, param);
+                boolean opaque = !band.getColorModel().hasAlpha();
+                int[] in = ColorKernels.pixels(ColorKernels.toIntRGB(band));
+
+                if (!opaque) Arrays.fill(sidePx, 0, rows * 2 * w, 0);
+                TileEngine.run(rows, (y0, y1) -> ColorKernels.fused(in, w, sidePx, corPx, y0, y1, type, level, linear, opaque));
+                if (!opaque) {
+                    Graphics2D g = side.createGraphics();
+                    g.drawImage(band, 0, 0, null);
+                    g.dispose();
+                }
+
+                simOut.writeRows(sidePx, w, 2 * w, rows);
+                if (corPx == null) corOut.writeRows(sidePx, w, 2 * w, rows);
+                else corOut.writeRows(corPx, 0, w, rows);
+                sideOut.writeRows(sidePx, 0, 2 * w, rows);
+            }
+        }
+    }
+}
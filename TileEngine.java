@@ -0,0 +1,80 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Splits an image into horizontal row bands and runs a kernel over them on a
+// ForkJoinPool. Each band writes only its own rows, so results are identical
+// to the single-threaded loop. Parallelism 1 (or -Dcoloraid.parallelism=1)
+// keeps the original sequential path.
+public class TileEngine {
+
+    interface BandKernel {
+        void apply(int y0, int y1);
+    }
+
+    private static int parallelism = Integer.getInteger("coloraid.parallelism",
+            Runtime.getRuntime().availableProcessors());
+    private static volatile int bandHeight = Integer.getInteger("coloraid.bandHeight", 32);
+    private static ForkJoinPool pool;
+
+    public static synchronized void setParallelism(int n) {
+        if (n < 1) n = 1;
+        if (n == parallelism) return;
+        parallelism = n;
+        // Not shut down: a run() may still be invoking on it. Its idle
+        // workers time out and exit, and the pool is then collected.
+        pool = null;
+    }
+
+    public static synchronized int getParallelism() {
+        return parallelism;
+    }
+
+    public static void setBandHeight(int rows) {
+        bandHeight = Math.max(1, rows);
+    }
+
+    public static boolean isSequential() {
+        return getParallelism() <= 1;
+    }
+
+    private static synchronized ForkJoinPool pool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
+    }
+
+    // Runs kernel over rows [0, height). Blocks until every band is done.
+    static void run(int height, BandKernel kernel) {
+        int band = bandHeight;
+        if (isSequential() || height <= band) {
+            kernel.apply(0, height);
+            return;
+        }
+        pool().invoke(new BandTask(kernel, 0, height, band));
+    }
+
+    private static final class BandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final transient BandKernel kernel;
+        private final int y0, y1, band;
+
+        BandTask(BandKernel kernel, int y0, int y1, int band) {
+            this.kernel = kernel;
+            this.y0 = y0;
+            this.y1 = y1;
+            this.band = band;
+        }
+
+        @Override
+        protected void compute() {
+            if (y1 - y0 <= band) {
+                kernel.apply(y0, y1);
+                return;
+            }
+            int mid = y0 + ((y1 - y0) / 2 / band) * band;
+            if (mid == y0) mid = y0 + band;
+            invokeAll(new BandTask(kernel, y0, mid, band), new BandTask(kernel, mid, y1, band));
+        }
+    }
+}
@@ -0,0 +1,109 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+// SIMD version of ColorKernels.simulatePixel / daltonizePixel on the
+// jdk.incubator.vector API. Uses the widest double vector the CPU has (4
+// lanes on AVX2, 8 on AVX-512) and an int vector with the same lane count.
+// The matrix math stays in double with separate mul and add, and D2I
+// truncates like the (int) cast, so output matches the scalar kernels.
+//
+// Kept out of the main source directory so a plain "javac *.java" (and the
+// editor project) builds without the incubator module. It is an optional
+// second step over the same output directory:
+//
+//   javac -cp "lib/*" -d out *.java
+//   javac --add-modules jdk.incubator.vector -cp out -d out vector/VectorKernels.java
+//
+// ColorKernels loads it by name only for -Dcoloraid.kernel=vector when the
+// app runs with --add-modules jdk.incubator.vector and the class is present.
+class VectorKernels implements ColorKernels.SimdKernel {
+
+    private static final VectorSpecies<Double> DS = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> IS =
+            VectorSpecies.of(int.class, VectorShape.forBitSize(DS.vectorBitSize() / 2));
+
+    @Override
+    public String describe() {
+        return "Vector API, " + DS.length() + " lanes (" + DS.vectorBitSize() + "-bit)";
+    }
+
+    @Override
+    public void simulate(int[] src, int srcPos, int[] dst, int dstPos, int len, int type) {
+        double[][] m = ColorKernels.MATRICES[type];
+        int n = IS.loopBound(len);
+        int k = 0;
+        for (; k < n; k += IS.length()) {
+            IntVector px = IntVector.fromArray(IS, src, srcPos + k);
+            IntVector r = px.lanewise(VectorOperators.LSHR, 16).and(0xFF);
+            IntVector g = px.lanewise(VectorOperators.LSHR, 8).and(0xFF);
+            IntVector b = px.and(0xFF);
+
+            IntVector out;
+            if (type == 4) {
+                IntVector gray = r.add(g).add(b).lanewise(VectorOperators.DIV, 3);
+                out = gray.lanewise(VectorOperators.LSHL, 16)
+                        .or(gray.lanewise(VectorOperators.LSHL, 8)).or(gray);
+            } else {
+                DoubleVector fr = (DoubleVector) r.convertShape(VectorOperators.I2D, DS, 0);
+                DoubleVector fg = (DoubleVector) g.convertShape(VectorOperators.I2D, DS, 0);
+                DoubleVector fb = (DoubleVector) b.convertShape(VectorOperators.I2D, DS, 0);
+                out = channel(m[0], fr, fg, fb).lanewise(VectorOperators.LSHL, 16)
+                        .or(channel(m[1], fr, fg, fb).lanewise(VectorOperators.LSHL, 8))
+                        .or(channel(m[2], fr, fg, fb));
+            }
+            out.intoArray(dst, dstPos + k);
+        }
+        for (; k < len; k++) {
+            dst[dstPos + k] = ColorKernels.simulatePixel(src[srcPos + k], type);
+        }
+    }
+
+    // One output channel: row[0]*r + row[1]*g + row[2]*b, truncated and clamped.
+    // A zero coefficient adds +0.0, which leaves the scalar two-term sums unchanged.
+    private static IntVector channel(double[] row, DoubleVector r, DoubleVector g, DoubleVector b) {
+        DoubleVector v = r.mul(row[0]).add(g.mul(row[1])).add(b.mul(row[2]));
+        return ((IntVector) v.convertShape(VectorOperators.D2I, IS, 0)).max(0).min(255);
+    }
+
+    @Override
+    public void daltonize(int[] orig, int origPos, int[] sim, int simPos, int[] dst, int dstPos, int len, int type) {
+        int n = IS.loopBound(len);
+        int k = 0;
+        for (; k < n; k += IS.length()) {
+            IntVector o = IntVector.fromArray(IS, orig, origPos + k);
+            IntVector s = IntVector.fromArray(IS, sim, simPos + k);
+            IntVector r = o.lanewise(VectorOperators.LSHR, 16).and(0xFF);
+            IntVector g = o.lanewise(VectorOperators.LSHR, 8).and(0xFF);
+            IntVector b = o.and(0xFF);
+
+            IntVector nr = r, ng = g, nb = b;
+            switch (type) {
+                case 1 -> {
+                    IntVector dr = r.sub(s.lanewise(VectorOperators.LSHR, 16).and(0xFF));
+                    ng = g.add(dr.mul(3));
+                    nb = b.add(dr);
+                }
+                case 2 -> {
+                    IntVector dg = g.sub(s.lanewise(VectorOperators.LSHR, 8).and(0xFF));
+                    nr = r.add(dg.mul(3));
+                    nb = b.add(dg);
+                }
+                case 3 -> {
+                    IntVector db = b.sub(s.and(0xFF));
+                    nr = r.add(db);
+                    ng = g.add(db);
+                }
+            }
+            nr.max(0).min(255).lanewise(VectorOperators.LSHL, 16)
+                    .or(ng.max(0).min(255).lanewise(VectorOperators.LSHL, 8))
+                    .or(nb.max(0).min(255))
+                    .intoArray(dst, dstPos + k);
+        }
+        for (; k < len; k++) {
+            dst[dstPos + k] = ColorKernels.daltonizePixel(orig[origPos + k], sim[simPos + k], type);
+        }
+    }
+}